@@ -0,0 +1,124 @@
+// The saved state of a running program, taken at a loop back-edge
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Checkpoint {
+
+	static final int MAGIC = 0x49434b50;  // "ICKP"
+	static final int VERSION = 2;
+
+	static final byte WHILE_LOOP = 0;
+	static final byte FOR_LOOP = 1;
+
+	long fingerprint;  // Identifies the program the checkpoint belongs to
+	byte kind;
+	int loopMarker;    // Index of the WHILE or FOR token
+	int bodyMarker;    // FOR only: first token of the body
+	int iteration;     // FOR only: the next iteration to run
+	int endLoop;       // FOR only: the number of iterations
+	HashMap<String, Integer> subs = new HashMap<String, Integer>();
+	ArrayList<Integer> returnLocations = new ArrayList<Integer>();
+	HashMap<String, Integer> symbols = new HashMap<String, Integer>();
+
+
+	/**
+	 * Hash the program's tokens, so a checkpoint is never resumed
+	 * against a script that has changed since it was taken
+	 * @param program the program's tokens
+	 * @return the fingerprint
+	 */
+	public static long fingerprint(ArrayList<Token> program) {
+		long hash = program.size();
+		for (Token t : program) {
+			hash = hash * 31 + t.type.ordinal();
+			if (t.value != null) {
+				hash = hash * 31 + t.value.hashCode();
+			}
+		}
+		return hash;
+	}
+
+
+	/**
+	 * Write the checkpoint to a temporary file and move it into place,
+	 * so a crash mid-write never leaves a truncated checkpoint behind
+	 * @param file where to save the checkpoint
+	 * @throws IOException
+	 */
+	public void write(Path file) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(this.fingerprint);
+			out.writeByte(this.kind);
+			out.writeInt(this.loopMarker);
+			out.writeInt(this.bodyMarker);
+			out.writeInt(this.iteration);
+			out.writeInt(this.endLoop);
+			out.writeInt(this.subs.size());
+			for (Map.Entry<String, Integer> entry : this.subs.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue());
+			}
+
+			out.writeInt(this.returnLocations.size());
+			for (int location : this.returnLocations) {
+				out.writeInt(location);
+			}
+
+			out.writeInt(this.symbols.size());
+			for (Map.Entry<String, Integer> entry : this.symbols.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue());
+			}
+		}
+
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	public static Checkpoint read(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a checkpoint file: " + file);
+			}
+
+			Checkpoint checkpoint = new Checkpoint();
+			checkpoint.fingerprint = in.readLong();
+			checkpoint.kind = in.readByte();
+			checkpoint.loopMarker = in.readInt();
+			checkpoint.bodyMarker = in.readInt();
+			checkpoint.iteration = in.readInt();
+			checkpoint.endLoop = in.readInt();
+			int subs = in.readInt();
+			for (int i = 0; i < subs; i++) {
+				String name = in.readUTF();
+				checkpoint.subs.put(name, in.readInt());
+			}
+
+			int locations = in.readInt();
+			for (int i = 0; i < locations; i++) {
+				checkpoint.returnLocations.add(in.readInt());
+			}
+
+			int symbols = in.readInt();
+			for (int i = 0; i < symbols; i++) {
+				String name = in.readUTF();
+				checkpoint.symbols.put(name, in.readInt());
+			}
+			return checkpoint;
+		}
+	}
+}
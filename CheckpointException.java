@@ -0,0 +1,10 @@
+// A checkpoint that does not belong to the script it is being resumed against
+
+public class CheckpointException extends ScriptException {
+
+	private static final long serialVersionUID = 1L;
+
+	public CheckpointException(String message, int tokenIndex, Token token) {
+		super(message, tokenIndex, token);
+	}
+}
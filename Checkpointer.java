@@ -0,0 +1,82 @@
+// Decides when a running program is checkpointed, and writes the checkpoints
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class Checkpointer {
+
+	Path file;
+	long intervalNanos;
+	long due;
+	long fingerprint;
+
+	// Loops outside every other block and SUB. At their back-edges nothing
+	// else is on the Java stack, so pc and the variables are the whole state.
+	boolean[] safePoints;
+
+
+	public Checkpointer(ArrayList<Token> program, Path file, long intervalMillis) {
+		this.file = file;
+		this.intervalNanos = intervalMillis * 1000000L;
+		this.due = System.nanoTime() + this.intervalNanos;
+		this.fingerprint = Checkpoint.fingerprint(program);
+		this.safePoints = new boolean[program.size()];
+
+		int depth = 0;
+		for (int i = 0; i < program.size(); i++) {
+			switch (program.get(i).type) {
+			case WHILE: case FOR:
+				this.safePoints[i] = depth == 0;
+				depth++;
+				break;
+			case IF: case SUB:
+				depth++;
+				break;
+			case ENDIF: case ENDWHILE: case ENDFOR: case ENDSUB:
+				depth--;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+
+	public void atWhile(Interpreter interpreter, int whileMarker) throws IOException {
+		if (this.safePoints[whileMarker] && System.nanoTime() >= this.due) {
+			Checkpoint checkpoint = this.capture(interpreter, Checkpoint.WHILE_LOOP, whileMarker);
+			this.save(checkpoint);
+		}
+	}
+
+
+	public void atFor(Interpreter interpreter, int forMarker, int bodyMarker, int iteration, int endLoop) throws IOException {
+		if (this.safePoints[forMarker] && System.nanoTime() >= this.due) {
+			Checkpoint checkpoint = this.capture(interpreter, Checkpoint.FOR_LOOP, forMarker);
+			checkpoint.bodyMarker = bodyMarker;
+			checkpoint.iteration = iteration;
+			checkpoint.endLoop = endLoop;
+			this.save(checkpoint);
+		}
+	}
+
+
+	private Checkpoint capture(Interpreter interpreter, byte kind, int loopMarker) {
+		Checkpoint checkpoint = new Checkpoint();
+		checkpoint.fingerprint = this.fingerprint;
+		checkpoint.kind = kind;
+		checkpoint.loopMarker = loopMarker;
+		checkpoint.subs = new HashMap<String, Integer>(interpreter.subs);
+		checkpoint.returnLocations.addAll(interpreter.returnLocations);
+		checkpoint.symbols = new HashMap<String, Integer>(interpreter.symbols);
+		return checkpoint;
+	}
+
+
+	private void save(Checkpoint checkpoint) throws IOException {
+		checkpoint.write(this.file);
+		this.due = System.nanoTime() + this.intervalNanos;
+	}
+}
@@ -0,0 +1,214 @@
+// An interactive, stdin-driven debugger for the Interpreter
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class Debugger {
+
+	// How execution proceeds until the next pause
+	enum Mode { CONTINUE, STEP_INTO, STEP_OVER, STEP_OUT }
+
+	static final String USAGE = "Commands: step, next, finish, continue, break N, clear N, print EXPR, watch EXPR, unwatch N, vars, bt, list, quit";
+
+	BufferedReader commands;
+	PrintStream out;
+	List<String> source;
+
+	// One flag per source line, grown on demand
+	boolean[] breakpoints = new boolean[64];
+	ArrayList<String> watches = new ArrayList<String>();
+
+	Mode mode = Mode.STEP_INTO;
+	int stepDepth;
+
+
+	public Debugger(String filename, BufferedReader commands, PrintStream out) throws IOException {
+		this.source = Files.readAllLines(Paths.get(filename));
+		this.commands = commands;
+		this.out = out;
+	}
+
+
+	/**
+	 * Called by the Interpreter before each statement, only when a debugger
+	 * is attached. Decides whether to pause and, if so, runs the command loop.
+	 * @param interpreter the interpreter being debugged
+	 * @throws Exception
+	 */
+	public void onStatement(Interpreter interpreter) throws Exception {
+		Token t = interpreter.currentToken;
+
+		// Only pause on tokens that start real work
+		if (!Interpreter.startsStatement(t.type)) {
+			return;
+		}
+
+		int depth = interpreter.returnLocations.size();
+		boolean stop = t.line < this.breakpoints.length && this.breakpoints[t.line];
+
+		if (this.mode == Mode.STEP_INTO) {
+			stop = true;
+		} else if (this.mode == Mode.STEP_OVER) {
+			stop = stop || depth <= this.stepDepth;
+		} else if (this.mode == Mode.STEP_OUT) {
+			stop = stop || depth < this.stepDepth;
+		}
+
+		if (stop) {
+			this.pause(interpreter, t.line, depth);
+		}
+	}
+
+
+	private void pause(Interpreter interpreter, int line, int depth) throws Exception {
+		this.out.println("[line " + line + "] " + this.sourceLine(line));
+		this.showWatches(interpreter);
+
+		while (true) {
+			this.out.print("(debug) ");
+			this.out.flush();
+
+			String input = this.commands.readLine();
+			if (input == null) {
+				// Commands exhausted: run to completion
+				this.mode = Mode.CONTINUE;
+				this.breakpoints = new boolean[0];
+				return;
+			}
+
+			input = input.trim();
+			String command = input;
+			String argument = "";
+			int space = input.indexOf(' ');
+			if (space > 0) {
+				command = input.substring(0, space);
+				argument = input.substring(space + 1).trim();
+			}
+
+			// A mistyped command must not end the script being debugged
+			try {
+				switch (command) {
+				case "s": case "step":
+					this.mode = Mode.STEP_INTO;
+					return;
+
+				case "n": case "next":
+					this.mode = Mode.STEP_OVER;
+					this.stepDepth = depth;
+					return;
+
+				case "f": case "finish":
+					this.mode = Mode.STEP_OUT;
+					this.stepDepth = depth;
+					return;
+
+				case "c": case "continue":
+					this.mode = Mode.CONTINUE;
+					return;
+
+				case "b": case "break":
+					this.setBreakpoint(this.lineArgument(argument), true);
+					break;
+
+				case "clear":
+					this.setBreakpoint(this.lineArgument(argument), false);
+					break;
+
+				case "p": case "print":
+					this.out.println(argument + " = " + this.evaluate(interpreter, argument));
+					break;
+
+				case "w": case "watch":
+					this.watches.add(argument);
+					this.out.println("watch " + this.watches.size() + ": " + argument);
+					break;
+
+				case "unwatch":
+					this.watches.remove(Integer.parseInt(argument) - 1);
+					break;
+
+				case "vars":
+					for (Map.Entry<String, Integer> entry : new TreeMap<String, Integer>(interpreter.symbols).entrySet()) {
+						this.out.println(entry.getKey() + " = " + entry.getValue());
+					}
+					break;
+
+				case "bt":
+					this.out.println("#0 line " + line);
+					for (int i = interpreter.returnLocations.size() - 1; i >= 0; i--) {
+						int site = interpreter.returnLocations.get(i);
+						this.out.println("#" + (interpreter.returnLocations.size() - i) + " line " + interpreter.program.get(site).line);
+					}
+					break;
+
+				case "l": case "list":
+					for (int i = Math.max(1, line - 3); i <= Math.min(this.source.size(), line + 3); i++) {
+						this.out.println((i == line ? "=> " : "   ") + i + "\t" + this.sourceLine(i));
+					}
+					break;
+
+				case "q": case "quit":
+					throw new Exception("Debugger quit on line " + line);
+
+				default:
+					this.out.println(USAGE);
+				}
+			} catch (NumberFormatException | IndexOutOfBoundsException e) {
+				this.out.println(USAGE);
+			}
+		}
+	}
+
+
+	private int lineArgument(String argument) {
+		int line = Integer.parseInt(argument);
+		if (line < 1) {
+			throw new NumberFormatException("Line numbers start at 1: " + argument);
+		}
+		return line;
+	}
+
+
+	private void setBreakpoint(int line, boolean enabled) {
+		if (line >= this.breakpoints.length) {
+			boolean[] grown = new boolean[Math.max(line + 1, this.breakpoints.length * 2)];
+			System.arraycopy(this.breakpoints, 0, grown, 0, this.breakpoints.length);
+			this.breakpoints = grown;
+		}
+		this.breakpoints[line] = enabled;
+	}
+
+
+	private void showWatches(Interpreter interpreter) {
+		for (int i = 0; i < this.watches.size(); i++) {
+			String expression = this.watches.get(i);
+			this.out.println("  " + (i + 1) + ": " + expression + " = " + this.evaluate(interpreter, expression));
+		}
+	}
+
+
+	private String evaluate(Interpreter interpreter, String expression) {
+		try {
+			ArrayList<Token> tokens = Interpreter.tokenize(new Lexer(new StringReader(expression)));
+			return String.valueOf(interpreter.evalDetached(tokens));
+		} catch (Exception e) {
+			return "<" + e.getMessage() + ">";
+		}
+	}
+
+
+	private String sourceLine(int line) {
+		if (line >= 1 && line <= this.source.size()) {
+			return this.source.get(line - 1).trim();
+		}
+		return "";
+	}
+}
@@ -0,0 +1,495 @@
+// Runs random programs through every execution engine, comparing results and timing each engine
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+public class DifferentialFuzzer {
+
+	static final long TIMEOUT_MILLIS = 5000;
+
+	// Values fed to INPUT statements, identical for every engine
+	static final String INPUTS;
+	static {
+		StringBuilder inputs = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			inputs.append(i * 7919 % 201 - 100).append(' ');
+		}
+		INPUTS = inputs.toString();
+	}
+
+	// A program made ready to run by one engine
+	interface Prepared extends AutoCloseable {
+		void run(PrintStream out, Scanner in) throws Exception;
+
+		default void close() throws IOException {
+		}
+	}
+
+	interface Engine {
+		String name();
+		Prepared prepare(String source, int id) throws Exception;
+	}
+
+	// Per-engine totals for the throughput CSV. Timed-out runs are
+	// counted separately and left out of the times.
+	static class Totals {
+		String engine;
+		long prepareNanos;
+		long runNanos;
+		int programs;
+		int mismatches;
+		int timeouts;
+	}
+
+	// What a worker reports back for one program
+	static class Reply {
+		long prepareNanos;
+		long runNanos;
+		String result;
+	}
+
+
+	static Engine interpreter() {
+		return new Engine() {
+			public String name() {
+				return "interpreter";
+			}
+
+			public Prepared prepare(String source, int id) throws Exception {
+				ArrayList<Token> tokens = Interpreter.tokenize(new Lexer(new StringReader(source)));
+				return (out, in) -> {
+					Interpreter interpreter = new Interpreter(tokens);
+					interpreter.out = out;
+					interpreter.in = in;
+					interpreter.evalProgram();
+				};
+			}
+		};
+	}
+
+
+	static Engine pipelined() {
+		return new Engine() {
+			public String name() {
+				return "pipeline";
+			}
+
+			public Prepared prepare(String source, int id) {
+				// Lexing overlaps the run, so all of the work is timed as running
+				return (out, in) -> {
+					Interpreter interpreter = new Interpreter(new TokenPipeline(new Lexer(new StringReader(source))));
+					interpreter.out = out;
+					interpreter.in = in;
+					interpreter.evalProgram();
+				};
+			}
+		};
+	}
+
+
+	static Engine compiled(JavaCompiler javac, Path directory) {
+		return new Engine() {
+			public String name() {
+				return "compiled";
+			}
+
+			public Prepared prepare(String source, int id) throws Exception {
+				String className = "Fuzz" + id;
+				ScriptCompiler compiler = new ScriptCompiler(Interpreter.tokenize(new Lexer(new StringReader(source))));
+				Path javaFile = directory.resolve(className + ".java");
+				Files.writeString(javaFile, compiler.compile(className));
+
+				if (javac.run(null, null, System.err, "-d", directory.toString(), javaFile.toString()) != 0) {
+					throw new Exception("javac failed for " + javaFile);
+				}
+
+				URLClassLoader loader = new URLClassLoader(new URL[] { directory.toUri().toURL() });
+				Method run = loader.loadClass(className).getMethod("run", PrintStream.class, Scanner.class);
+				return new Prepared() {
+					public void run(PrintStream out, Scanner in) throws Exception {
+						try {
+							run.invoke(null, out, in);
+						} catch (InvocationTargetException e) {
+							// Generated classes fail with the Java exceptions that the
+							// Interpreter reports as script evaluation errors
+							Throwable cause = e.getCause();
+							if (cause instanceof ArithmeticException || cause instanceof NoSuchElementException
+									|| cause instanceof IllegalStateException) {
+								throw new EvaluationException(cause.toString(), -1, 0, 0);
+							}
+							throw (Exception) cause;
+						}
+					}
+
+					public void close() throws IOException {
+						loader.close();
+					}
+				};
+			}
+		};
+	}
+
+
+	static Engine engine(String name, Path directory) throws Exception {
+		switch (name) {
+		case "interpreter":
+			return interpreter();
+		case "pipeline":
+			return pipelined();
+		case "compiled":
+			JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+			if (javac == null) {
+				throw new Exception("No Java compiler available");
+			}
+			return compiled(javac, directory);
+		default:
+			throw new Exception("Unknown engine: " + name);
+		}
+	}
+
+
+	/**
+	 * Run a prepared program, capturing its output and how it ended
+	 * @return the output followed by the outcome, for comparing engines
+	 */
+	static String execute(Prepared prepared) {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(buffer, true);
+
+		String outcome;
+		try {
+			prepared.run(out, new Scanner(INPUTS));
+			outcome = "ok";
+		} catch (Exception | StackOverflowError e) {
+			// Compare kinds of failure, since messages differ between engines
+			outcome = e.getClass().getSimpleName();
+		}
+
+		return buffer.toString() + "=> " + outcome;
+	}
+
+
+	// One engine running in a JVM of its own. A run that hangs is ended by
+	// killing the JVM, so it can't go on using CPU and skew later timings.
+	static class Worker {
+		String engine;
+		Path directory;
+		Process process;
+		DataOutputStream requests;
+		DataInputStream replies;
+
+
+		Worker(String engine, Path directory) {
+			this.engine = engine;
+			this.directory = directory;
+		}
+
+
+		/**
+		 * Run one program in the worker, starting a JVM for it if needed
+		 * @return the program's output and outcome, or a timeout or failure
+		 * marker; timings are added to the totals only for finished runs
+		 * @throws IOException
+		 */
+		String run(int id, String source, Totals totals) throws IOException {
+			if (this.process == null) {
+				this.start();
+			}
+
+			this.requests.writeInt(id);
+			writeString(this.requests, source);
+			this.requests.flush();
+
+			FutureTask<Reply> task = new FutureTask<Reply>(() -> {
+				Reply reply = new Reply();
+				reply.prepareNanos = this.replies.readLong();
+				reply.runNanos = this.replies.readLong();
+				reply.result = readString(this.replies);
+				return reply;
+			});
+			Thread thread = new Thread(task, "fuzz-reply");
+			thread.setDaemon(true);
+			thread.start();
+
+			try {
+				Reply reply = task.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+				totals.prepareNanos += reply.prepareNanos;
+				totals.runNanos += reply.runNanos;
+				return reply.result;
+			} catch (TimeoutException e) {
+				totals.timeouts++;
+				this.stop();
+				return "=> timeout";
+			} catch (ExecutionException e) {
+				this.stop();
+				return "=> worker failed: " + e.getCause();
+			} catch (InterruptedException e) {
+				this.stop();
+				return "=> interrupted";
+			}
+		}
+
+
+		private void start() throws IOException {
+			String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+			ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					"DifferentialFuzzer", "-worker", this.engine, this.directory.toString());
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+			this.process = builder.start();
+			this.requests = new DataOutputStream(new BufferedOutputStream(this.process.getOutputStream()));
+			this.replies = new DataInputStream(new BufferedInputStream(this.process.getInputStream()));
+		}
+
+
+		void stop() {
+			if (this.process != null) {
+				this.process.destroyForcibly();
+				try {
+					this.process.waitFor();
+				} catch (InterruptedException e) {
+					// Exiting anyway
+				}
+				this.process = null;
+			}
+		}
+	}
+
+
+	/**
+	 * The worker side: prepare and run each program the parent sends,
+	 * replying with the timings and result, until the parent closes stdin
+	 * @param name the engine to run
+	 * @param directory where the compiled engine writes its classes
+	 * @throws Exception
+	 */
+	static void worker(String name, Path directory) throws Exception {
+		// Replies own stdout; anything else printed goes to stderr
+		DataOutputStream replies = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+		System.setOut(System.err);
+		DataInputStream requests = new DataInputStream(new BufferedInputStream(System.in));
+
+		Engine engine = engine(name, directory);
+
+		while (true) {
+			int id;
+			try {
+				id = requests.readInt();
+			} catch (EOFException e) {
+				return;
+			}
+			String source = readString(requests);
+
+			long prepareNanos = 0;
+			long runNanos = 0;
+			String result;
+			long start = System.nanoTime();
+			try (Prepared prepared = engine.prepare(source, id)) {
+				long preparedAt = System.nanoTime();
+				prepareNanos = preparedAt - start;
+
+				result = execute(prepared);
+				runNanos = System.nanoTime() - preparedAt;
+			} catch (Exception e) {
+				result = "=> prepare failed: " + e;
+			}
+
+			replies.writeLong(prepareNanos);
+			replies.writeLong(runNanos);
+			writeString(replies, result);
+			replies.flush();
+		}
+	}
+
+
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+
+	static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+
+	public static void main(String[] args) {
+		if (args.length == 3 && args[0].equals("-worker")) {
+			try {
+				worker(args[1], Paths.get(args[2]));
+			} catch (Exception e) {
+				System.err.println(e);
+				System.exit(2);
+			}
+			return;
+		}
+
+		int count = 200;
+		long seed = System.currentTimeMillis();
+		int depth = 3;
+		String csv = "fuzz-throughput.csv";
+		String failures = "fuzz-failures";
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "-count": count = Integer.parseInt(args[i + 1]); break;
+			case "-seed":  seed = Long.parseLong(args[i + 1]); break;
+			case "-depth": depth = Integer.parseInt(args[i + 1]); break;
+			case "-csv":   csv = args[i + 1]; break;
+			case "-save":  failures = args[i + 1]; break;
+			default:
+				System.out.println("Usage: DifferentialFuzzer [-count N] [-seed S] [-depth D] [-csv file] [-save dir]");
+				return;
+			}
+		}
+
+		Path directory = null;
+		ArrayList<Worker> workers = new ArrayList<Worker>();
+		int mismatches = 0;
+
+		try {
+			directory = Files.createTempDirectory("fuzz");
+
+			ArrayList<String> engines = new ArrayList<String>();
+			engines.add("interpreter");
+			engines.add("pipeline");
+			if (ToolProvider.getSystemJavaCompiler() != null) {
+				engines.add("compiled");
+			} else {
+				System.out.println("No Java compiler available; skipping the compiled engine");
+			}
+
+			ArrayList<Totals> totals = new ArrayList<Totals>();
+			for (String engine : engines) {
+				workers.add(new Worker(engine, directory));
+				Totals t = new Totals();
+				t.engine = engine;
+				totals.add(t);
+			}
+
+			ProgramGenerator generator = new ProgramGenerator(seed, depth);
+
+			for (int id = 0; id < count; id++) {
+				String source = generator.generate();
+				String expected = null;
+				boolean mismatch = false;
+
+				// The first engine, the Interpreter, is the reference
+				for (int e = 0; e < workers.size(); e++) {
+					Totals t = totals.get(e);
+					String result = workers.get(e).run(id, source, t);
+					t.programs++;
+
+					if (expected == null) {
+						expected = result;
+					} else if (!result.equals(expected)) {
+						t.mismatches++;
+						mismatch = true;
+						System.out.println("Program " + id + ": " + t.engine + " disagrees with " + totals.get(0).engine);
+					}
+				}
+
+				if (mismatch) {
+					mismatches++;
+					File saved = new File(failures);
+					saved.mkdirs();
+					Files.writeString(new File(saved, "seed" + seed + "_" + id + ".a").toPath(), source);
+				}
+			}
+
+			writeThroughput(csv, seed, totals);
+
+			for (Totals t : totals) {
+				System.out.printf("%-12s %6d programs  %4d mismatches  %4d timeouts  prepare %8.1f ms  run %8.1f ms%n",
+						t.engine, t.programs, t.mismatches, t.timeouts, t.prepareNanos / 1e6, t.runNanos / 1e6);
+			}
+			System.out.println("Seed " + seed + ": " + mismatches + " of " + count + " programs disagreed");
+		} catch (Exception e) {
+			System.out.println(e);
+			mismatches = -1;
+		} finally {
+			for (Worker worker : workers) {
+				worker.stop();
+			}
+			deleteDirectory(directory);
+		}
+
+		// A non-zero exit status fails a build that uses this as a gate
+		if (mismatches < 0) {
+			System.exit(2);
+		} else if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+
+
+	static void deleteDirectory(Path directory) {
+		if (directory == null) {
+			return;
+		}
+
+		// Deepest paths first, so each directory is empty when it is deleted
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		} catch (IOException e) {
+			System.out.println("Could not delete " + directory + ": " + e);
+		}
+	}
+
+
+	static void writeThroughput(String csv, long seed, ArrayList<Totals> totals) throws IOException {
+		File file = new File(csv);
+		boolean header = !file.exists();
+
+		try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+			if (header) {
+				out.println("timestamp,seed,engine,programs,mismatches,prepare_ms,run_ms,programs_per_sec,timeouts");
+			}
+
+			String timestamp = Instant.now().toString();
+			for (Totals t : totals) {
+				// Rates cover only the runs that finished, matching the times
+				long nanos = t.prepareNanos + t.runNanos;
+				double perSecond = nanos > 0 ? (t.programs - t.timeouts) / (nanos / 1e9) : 0;
+				out.printf(Locale.ROOT, "%s,%d,%s,%d,%d,%.3f,%.3f,%.1f,%d%n", timestamp, seed, t.engine, t.programs,
+						t.mismatches, t.prepareNanos / 1e6, t.runNanos / 1e6, perSecond, t.timeouts);
+			}
+		}
+	}
+}
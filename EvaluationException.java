@@ -0,0 +1,14 @@
+// A well-formed statement that fails while it runs, such as reading an undefined variable
+
+public class EvaluationException extends ScriptException {
+
+	private static final long serialVersionUID = 1L;
+
+	public EvaluationException(String message, int tokenIndex, Token token) {
+		super(message, tokenIndex, token);
+	}
+
+	public EvaluationException(String message, int tokenIndex, int line, int column) {
+		super(message, tokenIndex, line, column);
+	}
+}
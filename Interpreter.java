@@ -1,6 +1,13 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Stack;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
 
 public class Interpreter {
@@ -10,27 +17,74 @@ public class Interpreter {
 	Token currentToken;
 	HashMap<String, Integer> symbols;
 	Stack<Integer> returnLocations = new Stack();
-	int marker;
+	HashMap<String, Integer> subs = new HashMap<String, Integer>();  // SUB names to the start of their bodies
+	boolean returning;  // Set by RETURN until callSub unwinds the blocks inside the SUB
+	Debugger debugger;  // Only set when running under the debugger
+	TokenPipeline pipeline;  // Set while tokens are still being lexed
+	PrintStream out = System.out;
+	Scanner in;  // Opened on the first INPUT unless a caller supplies one
+	boolean prompting;  // Only when in was opened here is there a user to prompt
+	InterpreterMetrics metrics;  // Only set when metrics are being collected
+	Checkpointer checkpointer;  // Only set when checkpoints are being taken
+	long deadline;  // System.nanoTime() past which loops and CALLs stop the run; 0 for no limit
 
 
 	public Interpreter(String filename) throws Exception {
+		this(tokenize(new Lexer(filename)));
+	}
 
-		Lexer lexer = new Lexer(filename);
-		this.program = new ArrayList<Token>();
-		Token t;
+
+	public Interpreter(ArrayList<Token> program) {
+
+		this.program = program;
+		this.symbols = new HashMap<String, Integer>();
+
+		// Get the first Token
 		this.pc = 0;
+		this.currentToken = this.program.get(this.pc);
+	}
+
+
+	public Interpreter(TokenPipeline pipeline) throws Exception {
 
+		// Start running as soon as the first chunk is lexed
+		this.program = new ArrayList<Token>();
+		this.pipeline = pipeline;
 		this.symbols = new HashMap<String, Integer>();
 
+		this.pc = 0;
+		this.fetch(this.pc);
+		this.currentToken = this.program.get(this.pc);
+	}
+
+
+	public static Interpreter load(String filename, InterpreterMetrics metrics) throws Exception {
+		if (metrics == null) {
+			return new Interpreter(filename);
+		}
+
+		// Time the lexing phase, then let the interpreter count as it runs
+		InterpreterMetrics.PhaseEvent event = metrics.beginPhase("lex", filename);
+		long start = System.nanoTime();
+		Interpreter interpreter = new Interpreter(filename);
+		metrics.endLex(event, start);
+
+		interpreter.metrics = metrics;
+		return interpreter;
+	}
+
+
+	public static ArrayList<Token> tokenize(Lexer lexer) throws Exception {
+		ArrayList<Token> tokens = new ArrayList<Token>();
+		Token t;
+
 		// Read all of the program tokens into an ArrayList
 		do {
 			t = lexer.nextToken();
-			this.program.add(t);
+			tokens.add(t);
 		} while (t.type != TokenType.EOF);
 
-		// Get the first Token
-		this.pc = 0;
-		this.currentToken = this.program.get(this.pc);
+		return tokens;
 	}
 
 
@@ -40,16 +94,42 @@ public class Interpreter {
 		// advance to the next token. If not, throw an error.
 
 		if (this.currentToken.type != expected) {
-			throw new Exception("Expected " + expected + ", but found " + currentToken.type + "." + pc); 
+			throw this.syntaxError("Expected " + expected + ", but found " + currentToken.type);
 		}
 
 		this.pc++;
-		if (this.pc < this.program.size()) {
+		if (this.pc < this.program.size() || this.fetch(this.pc)) {
 			this.currentToken = this.program.get(this.pc);
 		}
 	}
 
 
+	// Called wherever a script can keep running indefinitely: loop back-edges and CALLs
+	private void checkDeadline(int marker) throws EvaluationException {
+		if (this.deadline != 0 && System.nanoTime() - this.deadline > 0) {
+			throw new EvaluationException("Time limit exceeded", marker, this.program.get(marker));
+		}
+	}
+
+
+	private SyntaxException syntaxError(String message) {
+		return new SyntaxException(message, this.pc, this.currentToken);
+	}
+
+
+	private boolean fetch(int index) throws Exception {
+		// Pull chunks from the lexer thread until the token at index is loaded.
+		// Jumps only go back to tokens already seen, so this is only needed by
+		// consume and by the lookahead in isConditionGroup.
+		while (index >= this.program.size() && this.pipeline != null) {
+			if (!this.pipeline.fill(this.program)) {
+				this.pipeline = null;
+			}
+		}
+		return index < this.program.size();
+	}
+
+
 	public int evalFactor() throws Exception {
 		// A factor is either a literal number, a variable reference, or
 		// another expression in parentheses
@@ -65,7 +145,7 @@ public class Interpreter {
 			if (this.symbols.containsKey(name)) {
 				return this.symbols.get(name); 
 			} else {
-				throw new Exception("Unrecognized symbol: " + name); 
+				throw new EvaluationException("Unrecognized symbol: " + name, this.pc - 1, this.program.get(this.pc - 1));
 			}
 
 		} else if (this.currentToken.type == TokenType.LEFT_PAREN) {
@@ -73,7 +153,7 @@ public class Interpreter {
 			value = this.evalExpression();
 			this.consume(TokenType.RIGHT_PAREN);
 		} else {
-			throw new Exception("Expected number, variable name, or parenthesized expression, found " + this.currentToken.type); 
+			throw this.syntaxError("Expected number, variable name, or parenthesized expression, found " + this.currentToken.type); 
 		}
 
 		return value;
@@ -106,11 +186,13 @@ public class Interpreter {
 				this.consume(TokenType.TIMES);
 				value = value * this.evalUnaryTerm();
 			} else if (this.currentToken.type == TokenType.DIVIDE) {
+				int operator = this.pc;
 				this.consume(TokenType.DIVIDE); 
-				value = value / this.evalUnaryTerm();
+				value = value / this.divisor(operator);
 			} else {
+				int operator = this.pc;
 				this.consume(TokenType.MOD); 
-				value = value % this.evalUnaryTerm();
+				value = value % this.divisor(operator);
 			}
 		} 
 
@@ -118,6 +200,16 @@ public class Interpreter {
 	}
 
 
+	private int divisor(int operator) throws Exception {
+		// Report a zero divisor against the script, not as an ArithmeticException
+		int value = this.evalUnaryTerm();
+		if (value == 0) {
+			throw new EvaluationException("Division by zero", operator, this.program.get(operator));
+		}
+		return value;
+	}
+
+
 	public int evalExpression() throws Exception {
 		// An expression consists of at least one term ,followed
 		// by any number of terms separated by plus and minus operations
@@ -137,86 +229,191 @@ public class Interpreter {
 	}
 
 
-	public int evalConditional() throws Exception {
-		// An expression consists of at least one arithmetic expression,
-		// possibly joined to a second by a relational operator
-		int value = this.evalExpression();
+	public boolean evalCondition() throws Exception {
+		// A condition is one or more AND-terms separated by OR. Once a
+		// term is true the rest are skipped without being evaluated.
+		boolean value = this.evalAndCondition();
 
-		// Add additional cases for the other relational operators
-		if (this.currentToken.type == TokenType.LESS_THAN ||
-				this.currentToken.type == TokenType.GREATER_THAN) {
-
-			if (this.currentToken.type == TokenType.LESS_THAN) {
-				this.consume(TokenType.LESS_THAN);
-				int lhs = value;
-				int rhs = this.evalExpression();
-				if (lhs < rhs) {
-					return 1;
-				} else {
-					return 0; 
-				}
+		while (this.currentToken.type == TokenType.OR) {
+			this.consume(TokenType.OR);
+			if (value) {
+				this.skipOperand(false);
+			} else {
+				value = this.evalAndCondition();
 			}
+		}
 
-			else if (this.currentToken.type == TokenType.GREATER_THAN) {
-				this.consume(TokenType.GREATER_THAN);
-				int lhs = value;
-				int rhs = this.evalExpression();
-				if (lhs > rhs) {
-					return 1;
-				} else {
-					return 0; 
-				}
+		return value;
+	}
+
+
+	public boolean evalAndCondition() throws Exception {
+		// An AND-term stops evaluating at its first false operand
+		boolean value = this.evalNotCondition();
+
+		while (this.currentToken.type == TokenType.AND) {
+			this.consume(TokenType.AND);
+			if (value) {
+				value = this.evalNotCondition();
+			} else {
+				this.skipOperand(true);
 			}
 		}
-		else if (this.currentToken.type == TokenType.LESS_THAN_OR_EQUAL ||
-				this.currentToken.type == TokenType.GREATER_THAN_OR_EQUAL) {
 
-			if (this.currentToken.type == TokenType.LESS_THAN_OR_EQUAL) {
-				this.consume(TokenType.LESS_THAN_OR_EQUAL);
-				int lhs = value;
-				int rhs = this.evalExpression();
-				if (lhs <= rhs) {
-					return 1;
-				} else {
-					return 0; 
+		return value;
+	}
+
+
+	public boolean evalNotCondition() throws Exception {
+		if (this.currentToken.type == TokenType.NOT) {
+			this.consume(TokenType.NOT);
+			return !this.evalNotCondition();
+		}
+
+		// Parentheses may group a whole condition, not just arithmetic
+		if (this.currentToken.type == TokenType.LEFT_PAREN && this.isConditionGroup()) {
+			this.consume(TokenType.LEFT_PAREN);
+			boolean value = this.evalCondition();
+			this.consume(TokenType.RIGHT_PAREN);
+			return value;
+		}
+
+		return this.evalRelation();
+	}
+
+
+	public boolean evalRelation() throws Exception {
+		// Compare two arithmetic expressions and branch on the result
+		// directly. A lone expression is true when it is not 0.
+		int lhs = this.evalExpression();
+
+		switch (this.currentToken.type) {
+		case LESS_THAN:
+			this.consume(TokenType.LESS_THAN);
+			return lhs < this.evalExpression();
+
+		case GREATER_THAN:
+			this.consume(TokenType.GREATER_THAN);
+			return lhs > this.evalExpression();
+
+		case LESS_THAN_OR_EQUAL:
+			this.consume(TokenType.LESS_THAN_OR_EQUAL);
+			return lhs <= this.evalExpression();
+
+		case GREATER_THAN_OR_EQUAL:
+			this.consume(TokenType.GREATER_THAN_OR_EQUAL);
+			return lhs >= this.evalExpression();
+
+		case EQUAL:
+			this.consume(TokenType.EQUAL);
+			return lhs == this.evalExpression();
+
+		case NOT_EQUAL:
+			this.consume(TokenType.NOT_EQUAL);
+			return lhs != this.evalExpression();
+
+		default:
+			return lhs != 0;
+		}
+	}
+
+
+	private void skipOperand(boolean stopAtAnd) throws Exception {
+		// Step over an operand that short-circuiting makes irrelevant,
+		// stopping at the operator or token that ends it
+		int depth = 0;
+
+		while (true) {
+			switch (this.currentToken.type) {
+			case LEFT_PAREN:
+				depth++;
+				break;
+
+			case RIGHT_PAREN:
+				if (depth == 0) {
+					return;
+				}
+				depth--;
+				break;
+
+			case OR:
+				if (depth == 0) {
+					return;
 				}
-			} 	      
-			else if (this.currentToken.type == TokenType.GREATER_THAN_OR_EQUAL) {
-				this.consume(TokenType.GREATER_THAN_OR_EQUAL);
-				int lhs = value;
-				int rhs = this.evalExpression();
-				if (lhs >= rhs) {
-					return 1;
-				} else {
-					return 0; 
+				break;
+
+			case AND:
+				if (depth == 0 && stopAtAnd) {
+					return;
 				}
+				break;
+
+			case COLON: case NEWLINE: case COMMENT: case END: case EOF:
+				return;
+
+			default:
+				break;
 			}
+
+			this.consume(this.currentToken.type);
 		}
-		else if (this.currentToken.type == TokenType.EQUAL ||
-				this.currentToken.type == TokenType.NOT_EQUAL) {
-			if (this.currentToken.type == TokenType.EQUAL) {
-				this.consume(TokenType.EQUAL);
-				int lhs = value;
-				int rhs = this.evalExpression();
-				if (lhs == rhs) {
-					return 1;
-				} else {
-					return 0; 
-				}
-			} 	      
-			else if (this.currentToken.type == TokenType.NOT_EQUAL) {
-				this.consume(TokenType.NOT_EQUAL);
-				int lhs = value;
-				int rhs = this.evalExpression();
-				if (lhs != rhs) {
-					return 1;
-				} else {
-					return 0; 
+	}
+
+
+	private boolean isConditionGroup() throws Exception {
+		// Classify each parenthesis once, so a loop guard isn't rescanned
+		// every time it is evaluated
+		Token open = this.currentToken;
+		if (open.conditionGroup == null) {
+			// Under a pipeline the group may run past the tokens lexed so far
+			for (int i = this.pc; this.fetch(i); i++) {
+				TokenType type = this.program.get(i).type;
+				if (type == TokenType.COLON || type == TokenType.NEWLINE || type == TokenType.EOF) {
+					break;
 				}
 			}
+			open.conditionGroup = isConditionGroup(this.program, this.pc);
 		}
+		return open.conditionGroup;
+	}
 
-		return value;
+
+	/**
+	 * Decide whether the parenthesis at open groups a condition, such as
+	 * (x < 1 OR y > 2), rather than an arithmetic expression like (x + 1)
+	 * @param tokens the program's tokens
+	 * @param open the index of a LEFT_PAREN
+	 * @return true if a relational or boolean operator appears inside. Arithmetic
+	 * can't contain either, so one at any depth means a condition.
+	 */
+	static boolean isConditionGroup(ArrayList<Token> tokens, int open) {
+		int depth = 0;
+
+		for (int i = open; i < tokens.size(); i++) {
+			switch (tokens.get(i).type) {
+			case LEFT_PAREN:
+				depth++;
+				break;
+
+			case RIGHT_PAREN:
+				depth--;
+				if (depth == 0) {
+					return false;
+				}
+				break;
+
+			case LESS_THAN: case GREATER_THAN: case LESS_THAN_OR_EQUAL: case GREATER_THAN_OR_EQUAL:
+			case EQUAL: case NOT_EQUAL: case AND: case OR: case NOT:
+				return true;
+
+			case COLON: case NEWLINE: case EOF:
+				return false;
+
+			default:
+				break;
+			}
+		}
+		return false;
 	}
 	
 	public void evalElse () throws Exception {
@@ -227,10 +424,11 @@ public class Interpreter {
 				this.consume(TokenType.COLON);
 			}
 			else {
-				throw new Exception ("Incorrect formatting for 'else.' Missing ':'");
+				throw this.syntaxError("Incorrect formatting for 'else.' Missing ':'");
 			}
 			
-			while(this.currentToken.type != TokenType.ENDIF && this.currentToken.type != TokenType.END) {
+			while(this.currentToken.type != TokenType.ENDIF && this.currentToken.type != TokenType.END
+					&& !this.returning) {
 				this.evalStatementBlock();	
 			}
 		}
@@ -239,91 +437,104 @@ public class Interpreter {
 	public void evalIf() throws Exception{
 		this.consume(TokenType.IF);
 				
-		int bool = this.evalConditional();
+		boolean condition = this.evalCondition();
 		this.consume(TokenType.COLON);
 
-		if (bool == 0) {
+		if (condition) {
 			while(this.currentToken.type != TokenType.ENDIF && this.currentToken.type != TokenType.END
-					&& this.currentToken.type != TokenType.ELSE) {
-				this.consume(this.program.get(pc).type);
+					&& this.currentToken.type != TokenType.ELSE && !this.returning) {
+				this.evalStatementBlock();	
 			}
-			
+		}
+		else {
+			this.skipBlock(TokenType.IF, TokenType.ENDIF, true);
 			evalElse();
-			
-			if (this.currentToken.type == TokenType.END) {
-				throw new Exception("Reached end of program while executing");
-			}
-			else {
-				this.consume(TokenType.ENDIF);	
-			}
 		}
-		else if (bool == 1) {
 
-			while(this.currentToken.type != TokenType.ENDIF && this.currentToken.type != TokenType.END
-					&& this.currentToken.type != TokenType.ELSE) {
-				this.evalStatementBlock();	
-				
-				//nested if
-				if (this.currentToken.type == TokenType.IF) {
-					this.evalIf();
-					
-				}
-				
-				if (this.currentToken.type == TokenType.ELSE) {
-					while(this.currentToken.type != TokenType.ENDIF && this.currentToken.type != TokenType.END
-							&& this.currentToken.type != TokenType.IF) {
-						this.consume(this.program.get(pc).type);
-					}
-				}
-			}
-			
-			if (this.currentToken.type == TokenType.END) {
-				throw new Exception("Reached end of program while executing");
+		// After a RETURN the rest of the IF is left behind, not skipped
+		if (this.returning) {
+			return;
+		}
+		if (this.currentToken.type == TokenType.ELSE) {
+			this.skipBlock(TokenType.IF, TokenType.ENDIF, false);
+		}
+		
+		if (this.currentToken.type == TokenType.END) {
+			throw this.syntaxError("Reached end of program while executing");
+		}
+		else {
+			this.consume(TokenType.ENDIF);
+		}
+	}
+
+	private void skipBlock(TokenType opener, TokenType closer, boolean stopAtElse) throws Exception {
+		// Jump over a branch or loop body that won't run, stepping over any
+		// blocks of the same kind nested inside it
+		int depth = 0;
+
+		while (depth > 0 || (this.currentToken.type != closer
+				&& !(stopAtElse && this.currentToken.type == TokenType.ELSE))) {
+			if (this.currentToken.type == TokenType.END || this.currentToken.type == TokenType.EOF) {
+				throw this.syntaxError("Reached end of program while executing");
 			}
-			else {
-				this.consume(TokenType.ENDIF);
+			if (this.currentToken.type == opener) {
+				depth++;
+			} else if (this.currentToken.type == closer) {
+				depth--;
 			}
+			this.consume(this.currentToken.type);
 		}
-				
 	}
 	
 	public void evalWhile() throws Exception {
 		
+		int whileMarker = this.pc;
 		this.consume(TokenType.WHILE);
 		
 		int conditionMarker = this.pc;
-		int bool = this.evalConditional();
+		boolean condition = this.evalCondition();
 		
 		if (this.currentToken.type == TokenType.COLON) {
 			this.consume(TokenType.COLON);
 		}
 		else {
-			throw new Exception ("Incorrect formatting for 'while.' Missing ':'");
+			throw this.syntaxError("Incorrect formatting for 'while.' Missing ':'");
 		}		
-		int loopEnd = this.pc;
+		int loopEnd = -1;
 		
-		while (bool == 1) {
-			this.evalStatementBlock();
-			
-			if (this.currentToken.type == TokenType.ENDWHILE) {	
-				loopEnd = this.pc;
-				this.pc = conditionMarker;
-				this.currentToken = this.program.get(this.pc);
-				
-				bool = this.evalConditional();
-				this.consume(TokenType.COLON);
+		while (condition) {
+			while (this.currentToken.type != TokenType.ENDWHILE) {
+				if (this.currentToken.type == TokenType.END) {
+					throw this.syntaxError("Reached end of program while executing");
+				}
+				this.evalStatementBlock();
+				if (this.returning) {
+					return;
+				}
 			}
-			else if (this.currentToken.type == TokenType.END) {
-				throw new Exception("Reached end of program while executing");
+
+			if (this.metrics != null) {
+				this.metrics.loopIterations.increment();
 			}
-			else if (this.currentToken.type == TokenType.WHILE) {
-				this.evalWhile();
+			if (this.checkpointer != null) {
+				this.checkpointer.atWhile(this, whileMarker);
 			}
-
+			this.checkDeadline(whileMarker);
+			loopEnd = this.pc;
+			this.pc = conditionMarker;
+			this.currentToken = this.program.get(this.pc);
+			
+			condition = this.evalCondition();
+			this.consume(TokenType.COLON);
 		}
 
-		this.pc = loopEnd;
-		this.currentToken = this.program.get(this.pc);
+		// Once the body has run, the ENDWHILE is known; otherwise find it
+		if (loopEnd >= 0) {
+			this.pc = loopEnd;
+			this.currentToken = this.program.get(this.pc);
+		} else {
+			this.skipBlock(TokenType.WHILE, TokenType.ENDWHILE, false);
+		}
 
 		this.consume(TokenType.ENDWHILE);
 	}
@@ -335,41 +546,55 @@ public class Interpreter {
 			this.consume(TokenType.TO);
 		}
 		else {
-			throw new Exception("Illegal syntax for 'for' loop" + this.currentToken.value);
+			throw this.syntaxError("Illegal syntax for 'for' loop, expected TO but found " + this.currentToken.type);
 		}
 		int start = this.symbols.get(startKey);
 		return this.evalExpression() - start;
 	}
 	
 	public void evalFor() throws Exception {
+		int forMarker = this.pc;
 		this.consume(TokenType.FOR);
 		String name = this.currentToken.value;
 		
 		int endLoop = this.evalForCondition(name);
 		this.consume(TokenType.COLON);
 		this.consume(TokenType.NEWLINE);
-		int endFor = this.pc;
-
 		int conditionMarker = this.pc;
 
-		for (int i = 0; i < endLoop; i++) {
-			
-			if (this.currentToken.type == TokenType.END) {
-				throw new Exception("Reached end of program while executing");
-			}
-			
-			this.evalStatementBlock();
+		if (endLoop <= 0) {
+			this.skipBlock(TokenType.FOR, TokenType.ENDFOR, false);
+		}
 
-			if (this.currentToken.type == TokenType.ENDFOR && i < endLoop) {
-				endFor = this.pc;
-				this.pc = conditionMarker;
-				this.currentToken = this.program.get(this.pc);
+		this.evalForIterations(forMarker, conditionMarker, 0, endLoop);
+		if (!this.returning) {
+			this.consume(TokenType.ENDFOR);
+		}
+	}
+
+	void evalForIterations(int forMarker, int conditionMarker, int first, int endLoop) throws Exception {
+		for (int i = first; i < endLoop; i++) {
+			if (this.metrics != null) {
+				this.metrics.loopIterations.increment();
+			}
+			if (this.checkpointer != null && i > first) {
+				this.checkpointer.atFor(this, forMarker, conditionMarker, i, endLoop);
 			}
+			this.checkDeadline(forMarker);
+			this.pc = conditionMarker;
+			this.currentToken = this.program.get(this.pc);
 
+			// Each iteration runs every statement in the body
+			while (this.currentToken.type != TokenType.ENDFOR) {
+				if (this.currentToken.type == TokenType.END) {
+					throw this.syntaxError("Reached end of program while executing");
+				}
+				this.evalStatementBlock();
+				if (this.returning) {
+					return;
+				}
+			}
 		}
-		this.pc = endFor;
-		this.currentToken = this.program.get(this.pc);
-		this.consume(TokenType.ENDFOR);
 	}
 	
 	public void evalAssignmentStatement() throws Exception {
@@ -382,7 +607,7 @@ public class Interpreter {
 			this.consume(TokenType.ASSIGN);  // match the :=
 		}
 		else {
-			throw new Exception ("Incorrect formatting for assignment");
+			throw this.syntaxError("Incorrect formatting for assignment");
 		}
 
 		int value = this.evalExpression();
@@ -395,25 +620,86 @@ public class Interpreter {
 		this.consume(TokenType.PRINT); 
 
 		// Evaluate an expression and print its value		
-		System.out.println(this.evalExpression());
+		String value = String.valueOf(this.evalExpression());
+		this.out.println(value);
+
+		if (this.metrics != null) {
+			this.metrics.outputBytes.add(value.length() + 1);
+		}
 	}
 
 	public void evalInputStatement() throws Exception {
-
+		int input = this.pc;
 		this.consume(TokenType.INPUT);
 
 		String name = this.currentToken.value;
 		this.consume(TokenType.NAME);
 
-		Scanner scan = new Scanner(System.in);
-		System.out.print("Enter a value for " + name + ": ");
-		int value = scan.nextInt();
+		if (this.in == null) {
+			this.in = new Scanner(System.in);
+			this.prompting = true;
+		}
+		if (this.prompting) {
+			this.out.print("Enter a value for " + name + ": ");
+		}
+		int value;
+		try {
+			value = this.in.nextInt();
+		} catch (InputMismatchException e) {
+			throw new EvaluationException("Expected a whole number for " + name, input, this.program.get(input));
+		} catch (NoSuchElementException e) {
+			throw new EvaluationException("No input left for " + name, input, this.program.get(input));
+		}
 
 		this.symbols.put(name, value);
 	}
 
 
+	public int evalDetached(ArrayList<Token> tokens) throws Exception {
+		// Evaluate a standalone expression against the current variables,
+		// leaving the position in the program untouched
+		ArrayList<Token> savedProgram = this.program;
+		int savedPc = this.pc;
+		Token savedToken = this.currentToken;
+
+		try {
+			this.program = tokens;
+			this.pc = 0;
+			this.currentToken = tokens.get(0);
+			return this.evalExpression();
+		} finally {
+			this.program = savedProgram;
+			this.pc = savedPc;
+			this.currentToken = savedToken;
+		}
+	}
+
+
+	/**
+	 * Decide whether a token starts real work, as opposed to an empty
+	 * statement or the end of a block that evalStatement passes over
+	 * @param type the type of the token evalStatement is about to run
+	 * @return false for separators and block closers
+	 */
+	static boolean startsStatement(TokenType type) {
+		switch (type) {
+		case NEWLINE: case COMMENT: case END: case ENDIF: case ENDWHILE: case ENDSUB: case ENDFOR:
+			return false;
+		default:
+			return true;
+		}
+	}
+
+
 	public void evalStatement() throws Exception {
+		// A single null check keeps the debugger free when it isn't attached
+		if (this.debugger != null) {
+			this.debugger.onStatement(this);
+		}
+		if (this.metrics != null && startsStatement(this.currentToken.type)) {
+			this.metrics.statements.increment();
+		}
+
 		// There are different types of statements: select the 
 		// appropriate case based on the currentToken
 		switch(this.currentToken.type) {
@@ -487,36 +773,73 @@ public class Interpreter {
 
 			// Unrecognized token error
 		default:
-			throw new Exception("Unexpected token: " + this.currentToken.type);
+			throw this.syntaxError("Unexpected token: " + this.currentToken.type);
 		}
 	}
 	
 	private void callSub() throws Exception {
-		returnLocations.push(this.pc + 1);		
-		this.pc = this.marker;
+		this.consume(TokenType.CALL);
+		int site = this.pc;
+		this.checkDeadline(site);
+		int body = this.findSub(this.currentToken.value, site);
+
+		returnLocations.push(site);
+		if (this.metrics != null) {
+			this.metrics.subCalls.increment();
+		}
+		this.pc = body;
 		
 		this.currentToken = program.get(this.pc);
 		
-		while (this.currentToken.type != TokenType.ENDSUB && this.currentToken.type != TokenType.END) {
+		// Run the body until a RETURN, however deeply nested, or its ENDSUB
+		while (!this.returning && this.currentToken.type != TokenType.ENDSUB
+				&& this.currentToken.type != TokenType.END) {
 			this.evalStatementBlock();
 		}
 		
+		// Falling off the ENDSUB returns just like RETURN
+		this.returning = false;
+		this.pc = returnLocations.pop();
 		this.currentToken = program.get(this.pc);
-		this.evalStatementBlock();
+		this.consume(TokenType.NAME);
+	}
+	
+	private int findSub(String name, int site) throws Exception {
+		Integer body = this.subs.get(name);
+
+		// A SUB may be called before its definition has run, as long as
+		// it is defined somewhere in the program
+		for (int i = 0; body == null && this.fetch(i + 2); i++) {
+			if (this.program.get(i).type == TokenType.SUB && name.equals(this.program.get(i + 1).value)
+					&& this.program.get(i + 2).type == TokenType.COLON) {
+				body = i + 3;
+				this.subs.put(name, body);
+			}
+		}
+
+		if (body == null) {
+			throw new EvaluationException("CALL to undefined subroutine: " + name, site, this.program.get(site));
+		}
+		return body;
 	}
 	
 	private void subReturn() throws Exception {
-		this.pc = returnLocations.pop();
+		if (returnLocations.isEmpty()) {
+			throw this.syntaxError("RETURN outside of a SUB");
+		}
+		// The blocks between here and callSub stop when they see the flag
 		this.consume(TokenType.RETURN);
+		this.returning = true;
 	}
 
 
 	private void subMark() throws Exception {
 		this.consume(TokenType.SUB);
+		String name = this.currentToken.value;
 		this.consume(TokenType.NAME);
 		this.consume(TokenType.COLON);
 		
-		this.marker = this.pc;
+		this.subs.put(name, this.pc);
 		
 		while (this.currentToken.type != TokenType.ENDSUB) {
 			this.consume(program.get(pc).type);
@@ -541,7 +864,36 @@ public class Interpreter {
 		}
 	}
 
+	public void evalStatements() throws Exception {
+		// Run loose statements, such as a REPL entry, up to the end of the tokens
+		while (this.currentToken.type != TokenType.EOF) {
+			this.evalStatementBlock();
+		}
+	}
+
 	public void evalProgram() throws Exception{
+		try {
+			if (this.metrics == null) {
+				this.evalProgramBody(null);
+				return;
+			}
+
+			InterpreterMetrics.PhaseEvent event = this.metrics.beginPhase("run", null);
+			long start = System.nanoTime();
+			try {
+				this.evalProgramBody(event);
+			} finally {
+				this.metrics.endRun(event, start, this);
+			}
+		} finally {
+			// Stop the lexer thread if the program ended, or failed, before its last token
+			if (this.pipeline != null) {
+				this.pipeline.close();
+			}
+		}
+	}
+
+	private void evalProgramBody(InterpreterMetrics.PhaseEvent event) throws Exception {
 		while (this.currentToken.type == TokenType.NEWLINE || this.currentToken.type == TokenType.COMMENT) {
 			if (this.currentToken.type == TokenType.NEWLINE) {
 				this.consume(TokenType.NEWLINE);
@@ -556,10 +908,13 @@ public class Interpreter {
 			this.consume(TokenType.NAME);
 			this.consume(TokenType.COLON);
 			
+			if (event != null) {
+				event.script = name;
+			}
 			this.evalStatementBlock();
 		}
 		else {
-			throw new Exception ("Illegal start to program");
+			throw this.syntaxError("Illegal start to program");
 		}
 		
 		while (this.currentToken.type != TokenType.END) {
@@ -568,13 +923,135 @@ public class Interpreter {
 	}
 
 
+	public void resume(Checkpoint checkpoint) throws Exception {
+		if (this.metrics == null) {
+			this.resumeBody(checkpoint);
+			return;
+		}
+
+		// A resumed run is timed like any other, from the checkpoint onwards
+		InterpreterMetrics.PhaseEvent event = this.metrics.beginPhase("resume", this.programName());
+		long start = System.nanoTime();
+		try {
+			this.resumeBody(checkpoint);
+		} finally {
+			this.metrics.endRun(event, start, this);
+		}
+	}
+
+	private String programName() {
+		for (int i = 0; i + 1 < this.program.size(); i++) {
+			if (this.program.get(i).type == TokenType.PROGRAM) {
+				return this.program.get(i + 1).value;
+			}
+		}
+		return null;
+	}
+
+	private void resumeBody(Checkpoint checkpoint) throws Exception {
+		if (checkpoint.fingerprint != Checkpoint.fingerprint(this.program)) {
+			// Report it against the start of the script, since no loop in it matches
+			throw new CheckpointException("Checkpoint was taken from a different program", 0, this.program.get(0));
+		}
+
+		this.symbols = checkpoint.symbols;
+		this.subs = checkpoint.subs;
+		this.returnLocations.clear();
+		this.returnLocations.addAll(checkpoint.returnLocations);
+
+		// Re-enter the loop at the back-edge where the checkpoint was taken
+		if (checkpoint.kind == Checkpoint.WHILE_LOOP) {
+			this.pc = checkpoint.loopMarker;
+			this.currentToken = this.program.get(this.pc);
+			this.evalStatementBlock();
+		} else {
+			this.evalForIterations(checkpoint.loopMarker, checkpoint.bodyMarker, checkpoint.iteration, checkpoint.endLoop);
+			this.consume(TokenType.ENDFOR);
+		}
+
+		while (this.currentToken.type != TokenType.END) {
+			this.evalStatementBlock();
+		}
+	}
+
+
 	public static void main(String[] args) {
 
+		String filename = "src/Test/Extra/NestedLoops.a";
+		boolean debug = false;
+		boolean pipelined = false;
+		boolean check = false;
+		InterpreterMetrics metrics = null;
+		String checkpointFile = null;
+		String resumeFile = null;
+		long interval = 60000;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+
+			if (arg.equals("-checkpoint") && i + 1 < args.length) {
+				checkpointFile = args[++i];
+			} else if (arg.equals("-interval") && i + 1 < args.length) {
+				interval = Long.parseLong(args[++i]);
+			} else if (arg.equals("-resume") && i + 1 < args.length) {
+				resumeFile = args[++i];
+			} else if (arg.equals("-debug")) {
+				debug = true;
+			} else if (arg.equals("-pipeline")) {
+				pipelined = true;
+			} else if (arg.equals("-check")) {
+				check = true;
+			} else if (arg.equals("-metrics")) {
+				metrics = new InterpreterMetrics();
+			} else {
+				filename = arg;
+			}
+		}
+
+		// A checkpoint's fingerprint covers every token, which a pipelined
+		// run only has once the lexer has finished
+		if (pipelined && (checkpointFile != null || resumeFile != null)) {
+			System.out.println("-pipeline cannot be combined with -checkpoint or -resume");
+			System.exit(1);
+		}
+
 		try {
-			Interpreter interpreter = new Interpreter("src/Test/Extra/NestedLoops.a");
-			interpreter.evalProgram();  // Start with evalProgram, which you'll need to write
+			if (check) {
+				// Report every syntax error without running the program
+				for (ScriptException e : SyntaxChecker.check(filename)) {
+					System.out.println(e);
+				}
+				return;
+			}
+
+			Interpreter interpreter = pipelined
+					? new Interpreter(new TokenPipeline(new Lexer(filename)))
+					: Interpreter.load(filename, metrics);
+			interpreter.metrics = metrics;
+			if (debug) {
+				interpreter.debugger = new Debugger(filename,
+						new BufferedReader(new InputStreamReader(System.in)), System.out);
+			}
+			if (checkpointFile != null) {
+				interpreter.checkpointer = new Checkpointer(interpreter.program, Paths.get(checkpointFile), interval);
+			}
+
+			if (resumeFile != null) {
+				interpreter.resume(Checkpoint.read(Paths.get(resumeFile)));
+			} else {
+				interpreter.evalProgram();  // Start with evalProgram, which you'll need to write
+			}
+
+			// A finished program has nothing left to resume
+			if (checkpointFile != null) {
+				Files.deleteIfExists(Paths.get(checkpointFile));
+			}
 		} catch (Exception e) {
 			System.out.println(e);
+		} finally {
+			if (metrics != null) {
+				System.err.print(metrics);
+			}
 		}
 	}
 }
\ No newline at end of file
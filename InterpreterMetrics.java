@@ -0,0 +1,103 @@
+// Counters and timings for Interpreter runs, polled in-process and mirrored as JFR events
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+public class InterpreterMetrics {
+
+	@Name("interpreter.Phase")
+	@Label("Script Phase")
+	@Category("Interpreter")
+	static class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+
+		@Label("Script")
+		String script;
+
+		@Label("Variables")
+		int variables;
+	}
+
+	// One metrics object may be shared by many interpreters, such as
+	// every request in the ScriptServer, so the counters are thread-safe
+	LongAdder statements = new LongAdder();
+	LongAdder loopIterations = new LongAdder();
+	LongAdder subCalls = new LongAdder();
+	LongAdder outputBytes = new LongAdder();
+	LongAdder runs = new LongAdder();
+	LongAdder lexNanos = new LongAdder();
+	LongAdder runNanos = new LongAdder();
+	LongAccumulator maxVariables = new LongAccumulator(Long::max, 0);
+
+	// Run times bucketed by power of two nanoseconds
+	AtomicLongArray runTimes = new AtomicLongArray(64);
+
+
+	public PhaseEvent beginPhase(String phase, String script) {
+		PhaseEvent event = new PhaseEvent();
+		event.phase = phase;
+		event.script = script;
+		event.begin();
+		return event;
+	}
+
+
+	public void endLex(PhaseEvent event, long startNanos) {
+		this.lexNanos.add(System.nanoTime() - startNanos);
+		event.commit();
+	}
+
+
+	public void endRun(PhaseEvent event, long startNanos, Interpreter interpreter) {
+		long elapsed = System.nanoTime() - startNanos;
+		this.runs.increment();
+		this.runNanos.add(elapsed);
+		this.runTimes.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(elapsed, 1)));
+		this.maxVariables.accumulate(interpreter.symbols.size());
+
+		event.variables = interpreter.symbols.size();
+		event.commit();
+	}
+
+
+	/**
+	 * Take a point-in-time copy of every counter
+	 * @return metric names mapped to their current values
+	 */
+	public Map<String, Long> snapshot() {
+		Map<String, Long> values = new LinkedHashMap<String, Long>();
+		values.put("runs", this.runs.sum());
+		values.put("statements", this.statements.sum());
+		values.put("loop_iterations", this.loopIterations.sum());
+		values.put("sub_calls", this.subCalls.sum());
+		values.put("output_bytes", this.outputBytes.sum());
+		values.put("max_variables", this.maxVariables.get());
+		values.put("lex_nanos", this.lexNanos.sum());
+		values.put("run_nanos", this.runNanos.sum());
+
+		for (int i = 0; i < this.runTimes.length(); i++) {
+			long count = this.runTimes.get(i);
+			if (count > 0) {
+				values.put("run_nanos_lt_2^" + (i + 1), count);
+			}
+		}
+		return values;
+	}
+
+
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, Long> entry : this.snapshot().entrySet()) {
+			text.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+		}
+		return text.toString();
+	}
+}
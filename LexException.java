@@ -0,0 +1,10 @@
+// A character sequence the Lexer does not recognize
+
+public class LexException extends ScriptException {
+
+	private static final long serialVersionUID = 1L;
+
+	public LexException(String message, int line, int column) {
+		super(message, -1, line, column);
+	}
+}
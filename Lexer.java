@@ -4,14 +4,22 @@
 import java.io.PushbackReader;
 import java.util.InputMismatchException;
 import java.io.FileReader;
+import java.io.Reader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 
 public class Lexer {
   
   // PushbackReader supports pushing characters back on the input stream
   PushbackReader reader = null;
   int lineNumber = 1;
+  int column = 0;
+  int tokenLine;
+  int tokenColumn;
+  
+  // When set, unrecognized input is recorded here and lexing carries on
+  ArrayList<ScriptException> errors = null;
   
   public Lexer(String filename) throws FileNotFoundException {
     
@@ -19,6 +27,22 @@ public class Lexer {
     this.reader = new PushbackReader(new FileReader(filename), 1);
   }
   
+  public Lexer(Reader input) {
+    
+    // Lex from an in-memory source, such as a debugger watch expression
+    this.reader = new PushbackReader(input, 1);
+  }
+  
+  private int read() throws IOException {
+    this.column++;
+    return this.reader.read();
+  }
+  
+  private void unread(int c) throws IOException {
+    this.column--;
+    this.reader.unread(c);
+  }
+  
   /**
    * Append characters to an identified string, then compare 
    * token to specified keywords
@@ -31,10 +55,10 @@ public class Lexer {
     StringBuilder identifier = new StringBuilder();
     
     while (true) {
-      int c = this.reader.read();
+      int c = this.read();
       
       if (!Character.isLetter(c) && !Character.isDigit(c) && c != '_') {
-        reader.unread(c);
+        this.unread(c);
         break;
       } else {
         identifier.append((char) c);
@@ -107,12 +131,12 @@ public class Lexer {
     int value = 0;
     
     while (true) {
-      int c = this.reader.read();
+      int c = this.read();
       
       if (Character.isDigit(c)) {
         value = value * 10 + Character.getNumericValue(c);
       } else {
-        this.reader.unread(c);
+        this.unread(c);
         break;
       }
     }
@@ -120,17 +144,36 @@ public class Lexer {
     return new Token(TokenType.NUMBER, String.valueOf(value));
   }
   
+  /**
+   * Reads the next token and stamps it with the line it started on
+   * @return Token the tokenized value of the input
+   * @throws IOException
+   * @throws LexException
+   */
+  public Token nextToken() throws IOException, LexException {
+    int line = this.lineNumber;
+    Token t = this.scanToken();
+    
+    // Whitespace never crosses a newline, so the token starts on this line
+    t.line = line;
+    t.column = this.tokenColumn;
+    return t;
+  }
+  
   /**
    * Reads elements from an input program and compares them against
    * a set list of valid tokens
    * @return Token the tokenized value of the input
-   * @throws Exception
+   * @throws IOException
+   * @throws LexException
    */
-  public Token nextToken() throws Exception {
+  private Token scanToken() throws IOException, LexException {
     
     while (true) {
     
-      int c = reader.read();
+      int c = this.read();
+      this.tokenLine = this.lineNumber;
+      this.tokenColumn = this.column;
       
       // End-of-file
       if (c == -1) {
@@ -144,26 +187,26 @@ public class Lexer {
       
       // Two tokens start with >
       else if (c == '>') {
-        int next = this.reader.read();
+        int next = this.read();
         
         if (next == '=') {
           return new Token(TokenType.GREATER_THAN_OR_EQUAL); 
         } else {
-          this.reader.unread(next);
+          this.unread(next);
           return new Token(TokenType.GREATER_THAN);
         }
       }
       
       // Three tokens start with <
       else if (c == '<') {
-        int next = this.reader.read();
+        int next = this.read();
         
         if (next == '=') {
           return new Token(TokenType.LESS_THAN_OR_EQUAL); 
         } else if (next == '>') {
           return new Token(TokenType.NOT_EQUAL);
         } else {
-          this.reader.unread(next);
+          this.unread(next);
           return new Token(TokenType.LESS_THAN);
         }
       }
@@ -189,13 +232,13 @@ public class Lexer {
       else if (Character.isLetter(c)) {
         
         // Push it back on the stack, then call analyzeIdentifier
-        reader.unread(c);
+        this.unread(c);
         return this.analyzeIdentifier();
       }
       
       // First character is a digit
       else if (Character.isDigit(c)) {
-        reader.unread(c);
+        this.unread(c);
         return this.analyzeNumber();
       }
       else if (c == 65535) {
@@ -203,13 +246,13 @@ public class Lexer {
       }
       //Two tokens starting with :
       else if (c == ':') {
-          int next = this.reader.read();
+          int next = this.read();
     
           if (next == '=') {
         	  return new Token(TokenType.ASSIGN);
           }
           else {
-        	  this.reader.unread(next);
+        	  this.unread(next);
         	  return new Token(TokenType.COLON);
           }
         }
@@ -230,6 +273,7 @@ public class Lexer {
       }
       else if (c == '\n') {
     	  lineNumber++;
+    	  column = 0;
     	  return new Token(TokenType.NEWLINE);
       }
       else if (c == '"') {
@@ -237,23 +281,43 @@ public class Lexer {
       }
       //Comments
       else if (c == '{') {
-    	  int next = this.reader.read(); //read the following value
+    	  int next = this.read(); //read the following value
     	  
     	  while (next != '}') { //until we see the closing brace
-    		  next = this.reader.read(); //read the next character
+    		  if (next == '\n') { //comments can span lines
+    			  lineNumber++;
+    			  column = 0;
+    		  }
+    		  next = this.read(); //read the next character
     		  
     		  if (next == -1) { //reached end of file without reading closing brace
-    	    	  throw new Exception (" Unrecognized token. Error on line: " + lineNumber + " Character1: " + c);
+    	    	  return this.error(TokenType.COMMENT, "Unterminated comment");
     		  }
     	  }
     	  return new Token(TokenType.COMMENT);
       }   
       //catch-all error case
       else if (!Character.isWhitespace(c)) {
-    	  throw new Exception ("Unrecognized token. Error on line: " + lineNumber + " Character2: " + Character.toString((char) c));
+    	  return this.error(TokenType.UNKNOWN, "Unrecognized character: " + Character.toString((char) c));
       }
     }
   }
+  
+  /**
+   * Report a lexical error at the current token, or record it and
+   * carry on when collecting every error in one pass
+   * @return Token the token standing in for the bad input
+   * @throws LexException
+   */
+  private Token error(TokenType standIn, String message) throws LexException {
+    LexException e = new LexException(message, this.tokenLine, this.tokenColumn);
+    
+    if (this.errors == null) {
+      throw e;
+    }
+    this.errors.add(e);
+    return new Token(standIn);
+  }
 
   public static void main(String[] args) {
     
@@ -0,0 +1,216 @@
+// Generates random, valid, terminating programs for differential testing
+
+import java.util.ArrayList;
+import java.util.Random;
+
+public class ProgramGenerator {
+
+	static final int VARIABLES = 5;
+
+	// Edge-case literals: zero for division, and values near the int limits for
+	// overflow. The Lexer wraps 2147483648 to the most negative int.
+	static final String[] LITERALS = { "0", "1", "2", "3", "7", "10", "100", "46341", "65536", "2147483647", "2147483648" };
+
+	static final String[] RELATIONS = { "<", ">", "<=", ">=", "=", "<>" };
+
+	Random random;
+	int maxDepth;
+	int counters;    // Loop counters get their own names, so loop bodies never touch them
+	int callable;     // CALLs may name s0 up to, but not including, this SUB
+	boolean inSub;
+
+
+	public ProgramGenerator(long seed, int maxDepth) {
+		this.random = new Random(seed);
+		this.maxDepth = maxDepth;
+	}
+
+
+	/**
+	 * Build a program that initializes most of its variables, defines up
+	 * to three subroutines, then runs a random block of statements. A
+	 * variable left uninitialized may be read before it is assigned. WHILE
+	 * loops count a private counter up to a small bound, and a SUB only
+	 * calls SUBs defined before it, so every program ends.
+	 * @return the program's source text
+	 */
+	public String generate() {
+		StringBuilder code = new StringBuilder();
+		this.counters = 0;
+
+		code.append("PROGRAM fuzz:\n");
+		for (int i = 0; i < VARIABLES; i++) {
+			if (this.random.nextInt(8) != 0) {
+				code.append("v").append(i).append(" := ").append(this.literal()).append('\n');
+			}
+		}
+
+		int subs = this.random.nextInt(4);
+		ArrayList<String> definitions = new ArrayList<String>();
+		for (int i = 0; i < subs; i++) {
+			StringBuilder sub = new StringBuilder();
+			sub.append("SUB s").append(i).append(":\n");
+			this.callable = i;
+			this.inSub = true;
+			this.block(sub, "  ", 1, 1 + this.random.nextInt(4));
+			this.inSub = false;
+			if (this.random.nextBoolean()) {
+				sub.append("  RETURN\n");
+			}
+			sub.append("ENDSUB\n");
+			definitions.add(sub.toString());
+		}
+
+		// The last SUB is sometimes defined after the statements that call it
+		boolean late = subs > 0 && this.random.nextBoolean();
+		for (int i = 0; i < subs - (late ? 1 : 0); i++) {
+			code.append(definitions.get(i));
+		}
+
+		this.callable = subs;
+		this.block(code, "", 0, 2 + this.random.nextInt(6));
+		if (late) {
+			code.append(definitions.get(subs - 1));
+		}
+
+		for (int i = 0; i < VARIABLES; i++) {
+			code.append("PRINT v").append(i).append('\n');
+		}
+		code.append("END\n");
+
+		return code.toString();
+	}
+
+
+	private void block(StringBuilder code, String indent, int depth, int statements) {
+		for (int i = 0; i < statements; i++) {
+			this.statement(code, indent, depth);
+		}
+	}
+
+
+	private void statement(StringBuilder code, String indent, int depth) {
+		// An early RETURN, possibly from inside nested blocks, leaves the rest of the SUB unrun
+		if (this.inSub && this.random.nextInt(8) == 0) {
+			code.append(indent).append("RETURN\n");
+			return;
+		}
+
+		int choice = this.random.nextInt(depth < this.maxDepth ? 9 : 5);
+
+		switch (choice) {
+		case 0: case 1:
+			code.append(indent).append(this.variable()).append(" := ").append(this.expression(2)).append('\n');
+			break;
+
+		case 2:
+			code.append(indent).append("PRINT ").append(this.expression(2)).append('\n');
+			break;
+
+		case 3:
+			code.append(indent).append("INPUT ").append(this.variable()).append('\n');
+			break;
+
+		case 4:
+			if (this.callable > 0) {
+				code.append(indent).append("CALL s").append(this.random.nextInt(this.callable)).append('\n');
+			} else {
+				code.append(indent).append("PRINT ").append(this.expression(1)).append('\n');
+			}
+			break;
+
+		case 5: case 6:
+			code.append(indent).append("IF ").append(this.condition()).append(":\n");
+			this.block(code, indent + "  ", depth + 1, 1 + this.random.nextInt(3));
+			if (this.random.nextBoolean()) {
+				code.append(indent).append("ELSE:\n");
+				this.block(code, indent + "  ", depth + 1, 1 + this.random.nextInt(3));
+			}
+			code.append(indent).append("ENDIF\n");
+			break;
+
+		case 7:
+			String counter = "c" + this.counters++;
+			code.append(indent).append(counter).append(" := 0\n");
+			code.append(indent).append("WHILE ").append(counter).append(" < ").append(1 + this.random.nextInt(4)).append(":\n");
+			this.block(code, indent + "  ", depth + 1, 1 + this.random.nextInt(3));
+			code.append(indent).append("  ").append(counter).append(" := ").append(counter).append(" + 1\n");
+			code.append(indent).append("ENDWHILE\n");
+			break;
+
+		default:
+			int start = this.random.nextInt(3);
+			code.append(indent).append("FOR f").append(this.counters++).append(" := ").append(start)
+				.append(" TO ").append(start + this.random.nextInt(4)).append(":\n");
+			this.block(code, indent + "  ", depth + 1, 1 + this.random.nextInt(3));
+			code.append(indent).append("ENDFOR\n");
+			break;
+		}
+	}
+
+
+	String condition() {
+		return this.condition(2);
+	}
+
+
+	private String condition(int depth) {
+		// Compound conditions check that short-circuiting skips the same
+		// operands, such as a division by zero, in every engine
+		switch (depth == 0 ? 0 : this.random.nextInt(6)) {
+		case 0: case 1:
+			return this.expression(1) + " " + RELATIONS[this.random.nextInt(RELATIONS.length)] + " " + this.expression(1);
+		case 2:
+			return this.condition(depth - 1) + " AND " + this.condition(depth - 1);
+		case 3:
+			return this.condition(depth - 1) + " OR " + this.condition(depth - 1);
+		case 4:
+			return "NOT " + this.condition(depth - 1);
+		default:
+			return "(" + this.condition(depth - 1) + ")";
+		}
+	}
+
+
+	String expression(int depth) {
+		if (depth == 0 || this.random.nextInt(3) == 0) {
+			return this.factor(depth);
+		}
+
+		String lhs = this.expression(depth - 1);
+		String rhs = this.expression(depth - 1);
+		switch (this.random.nextInt(5)) {
+		case 0: return lhs + " + " + rhs;
+		case 1: return lhs + " - " + rhs;
+		case 2: return lhs + " * " + rhs;
+		case 3: return lhs + " / " + rhs;
+		default: return lhs + " % " + rhs;
+		}
+	}
+
+
+	private String factor(int depth) {
+		switch (this.random.nextInt(depth > 0 ? 6 : 5)) {
+		case 0: case 1:
+			return this.variable();
+		case 2:
+			return this.literal();
+		case 3:
+			return "-" + this.variable();
+		case 4:
+			return "-" + this.literal();
+		default:
+			return "(" + this.expression(depth - 1) + ")";
+		}
+	}
+
+
+	private String variable() {
+		return "v" + this.random.nextInt(VARIABLES);
+	}
+
+
+	private String literal() {
+		return LITERALS[this.random.nextInt(LITERALS.length)];
+	}
+}
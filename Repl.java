@@ -0,0 +1,251 @@
+// An interactive REPL and a watch-file mode that keep program state between inputs
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class Repl {
+
+	Interpreter interpreter;
+
+	// Watch-file mode keeps the tokens of every source line so an edit only
+	// re-lexes the lines that actually changed
+	List<String> lines = new ArrayList<String>();
+	ArrayList<ArrayList<Token>> lineTokens = new ArrayList<ArrayList<Token>>();
+
+
+	public Repl() {
+		ArrayList<Token> program = new ArrayList<Token>();
+		program.add(new Token(TokenType.EOF));
+		this.interpreter = new Interpreter(program);
+	}
+
+
+	/**
+	 * Read statements from stdin, running each one as soon as its block is
+	 * complete. Only the new input is lexed; it is appended to the program so
+	 * subroutines defined by earlier inputs stay callable.
+	 * @throws Exception
+	 */
+	public void runInteractive() throws Exception {
+		BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+		StringBuilder pending = new StringBuilder();
+
+		while (true) {
+			System.out.print(pending.length() == 0 ? "> " : "... ");
+			System.out.flush();
+
+			String line = input.readLine();
+			if (line == null) {
+				break;
+			}
+			pending.append(line).append('\n');
+
+			ArrayList<Token> tokens;
+			try {
+				if (unclosedComment(pending)) {
+					continue;
+				}
+				tokens = Interpreter.tokenize(new Lexer(new StringReader(pending.toString())));
+			} catch (Exception e) {
+				System.out.println(e);
+				pending.setLength(0);
+				continue;
+			}
+
+			// Keep reading until every block opened in this entry is closed
+			if (openBlocks(tokens) > 0) {
+				continue;
+			}
+			pending.setLength(0);
+
+			this.evalEntry(tokens);
+		}
+	}
+
+
+	private void evalEntry(ArrayList<Token> tokens) {
+		ArrayList<Token> program = this.interpreter.program;
+		int start = program.size() - 1;
+		HashMap<String, Integer> subs = new HashMap<String, Integer>(this.interpreter.subs);
+
+		// Replace the trailing EOF with the new entry, which brings its own
+		program.remove(start);
+		program.addAll(tokens);
+
+		this.interpreter.pc = start;
+		this.interpreter.currentToken = program.get(start);
+
+		try {
+			this.interpreter.evalStatements();
+		} catch (Exception e) {
+			System.out.println(e);
+
+			// Drop the failed entry so later inputs start from a clean tail.
+			// SUBs it defined pointed into the dropped tokens, so they go too.
+			program.subList(start, program.size()).clear();
+			program.add(new Token(TokenType.EOF));
+			this.interpreter.returnLocations.clear();
+			this.interpreter.subs = subs;
+			this.interpreter.returning = false;
+		}
+	}
+
+
+	/**
+	 * Run a file, then re-run it every time it changes. Variables survive
+	 * between runs, and only lines whose text changed are lexed again.
+	 * @param filename the script to watch
+	 * @throws Exception
+	 */
+	public void runWatch(String filename) throws Exception {
+		File file = new File(filename);
+		long lastModified = -1;
+
+		while (true) {
+			if (file.lastModified() != lastModified) {
+				lastModified = file.lastModified();
+
+				long start = System.nanoTime();
+				try {
+					ArrayList<Token> program = this.relex(Files.readAllLines(file.toPath()));
+					long lexed = System.nanoTime();
+
+					this.interpreter.program = program;
+					this.interpreter.pc = 0;
+					this.interpreter.currentToken = program.get(0);
+					this.interpreter.returnLocations.clear();
+					this.interpreter.subs.clear();
+					this.interpreter.evalProgram();
+
+					System.out.println("-- reloaded " + filename + " (lex " + (lexed - start) / 1000 + " us)");
+				} catch (Exception e) {
+					System.out.println(e);
+				}
+			}
+
+			Thread.sleep(200);
+		}
+	}
+
+
+	ArrayList<Token> relex(List<String> source) throws Exception {
+
+		// A comment that spans lines can't be lexed a line at a time
+		for (String line : source) {
+			if (unclosedComment(line)) {
+				this.lines = new ArrayList<String>();
+				this.lineTokens = new ArrayList<ArrayList<Token>>();
+				return Interpreter.tokenize(new Lexer(new StringReader(String.join("\n", source) + "\n")));
+			}
+		}
+
+		// Lines shared at the start and end of the old and new text are reused
+		int prefix = 0;
+		while (prefix < source.size() && prefix < this.lines.size()
+				&& source.get(prefix).equals(this.lines.get(prefix))) {
+			prefix++;
+		}
+
+		int suffix = 0;
+		while (suffix < source.size() - prefix && suffix < this.lines.size() - prefix
+				&& source.get(source.size() - 1 - suffix).equals(this.lines.get(this.lines.size() - 1 - suffix))) {
+			suffix++;
+		}
+
+		ArrayList<ArrayList<Token>> tokens = new ArrayList<ArrayList<Token>>(source.size());
+		for (int i = 0; i < prefix; i++) {
+			tokens.add(this.lineTokens.get(i));
+		}
+		for (int i = prefix; i < source.size() - suffix; i++) {
+			tokens.add(lexLine(source.get(i), i + 1));
+		}
+		for (int i = this.lines.size() - suffix; i < this.lines.size(); i++) {
+			ArrayList<Token> line = this.lineTokens.get(i);
+			int number = tokens.size() + 1;
+
+			// Shifted lines keep their tokens but need their line numbers fixed
+			if (!line.isEmpty() && line.get(0).line != number) {
+				for (Token t : line) {
+					t.line = number;
+				}
+			}
+			tokens.add(line);
+		}
+
+		this.lines = new ArrayList<String>(source);
+		this.lineTokens = tokens;
+
+		ArrayList<Token> program = new ArrayList<Token>();
+		for (ArrayList<Token> line : tokens) {
+			program.addAll(line);
+		}
+		Token eof = new Token(TokenType.EOF);
+		eof.line = source.size() + 1;
+		program.add(eof);
+
+		return program;
+	}
+
+
+	private static ArrayList<Token> lexLine(String line, int number) throws Exception {
+		ArrayList<Token> tokens = Interpreter.tokenize(new Lexer(new StringReader(line + "\n")));
+
+		// Drop the EOF; the line's own NEWLINE separates it from the next one
+		tokens.remove(tokens.size() - 1);
+		for (Token t : tokens) {
+			t.line = number;
+		}
+		return tokens;
+	}
+
+
+	private static boolean unclosedComment(CharSequence text) {
+		int depth = 0;
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '{') {
+				depth = 1;
+			} else if (text.charAt(i) == '}') {
+				depth = 0;
+			}
+		}
+		return depth > 0;
+	}
+
+
+	private static int openBlocks(ArrayList<Token> tokens) {
+		int depth = 0;
+		for (Token t : tokens) {
+			switch (t.type) {
+			case IF: case WHILE: case FOR: case SUB:
+				depth++;
+				break;
+			case ENDIF: case ENDWHILE: case ENDFOR: case ENDSUB:
+				depth--;
+				break;
+			default:
+				break;
+			}
+		}
+		return depth;
+	}
+
+
+	public static void main(String[] args) {
+		try {
+			Repl repl = new Repl();
+			if (args.length == 2 && args[0].equals("-watch")) {
+				repl.runWatch(args[1]);
+			} else {
+				repl.runInteractive();
+			}
+		} catch (Exception e) {
+			System.out.println(e);
+		}
+	}
+}
@@ -0,0 +1,465 @@
+// Translates a script into a standalone Java class that runs without the Interpreter
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+public class ScriptCompiler {
+
+	ArrayList<Token> program;
+	int pc;
+	Token currentToken;
+
+	String className;
+	LinkedHashSet<String> variables = new LinkedHashSet<String>();
+	LinkedHashMap<String, StringBuilder> subs = new LinkedHashMap<String, StringBuilder>();
+	HashSet<String> called = new HashSet<String>();
+	boolean inSub;
+	int loops;  // Numbers the hidden counters of FOR loops
+	boolean inLoopCondition;
+
+
+	public ScriptCompiler(ArrayList<Token> program) {
+		this.program = program;
+		this.pc = 0;
+		this.currentToken = program.get(0);
+	}
+
+
+	/**
+	 * Generate the Java source for a script. Variables become static int
+	 * fields, subroutines become static methods and blocks become Java
+	 * control flow. The class has a main method and a run(out, in) entry
+	 * point that resets every variable, so it can be run more than once.
+	 * @param className the class to generate, or null to name it after the program
+	 * @return the Java source
+	 * @throws SyntaxException
+	 */
+	public String compile(String className) throws SyntaxException {
+		StringBuilder body = new StringBuilder();
+
+		this.skipSeparators();
+		this.consume(TokenType.PROGRAM);
+		String name = this.currentToken.value;
+		this.consume(TokenType.NAME);
+		this.consume(TokenType.COLON);
+
+		this.className = className != null ? className : Character.toUpperCase(name.charAt(0)) + name.substring(1);
+
+		this.compileBlock(body, "\t\t", TokenType.END);
+		this.consume(TokenType.END);
+
+		for (String sub : this.called) {
+			if (!this.subs.containsKey(sub)) {
+				throw new SyntaxException("CALL to undefined subroutine: " + sub, -1, this.currentToken);
+			}
+		}
+
+		StringBuilder code = new StringBuilder();
+		code.append("// Compiled from PROGRAM ").append(name).append(" by ScriptCompiler\n\n");
+		code.append("public class ").append(this.className).append(" {\n\n");
+		code.append("\tstatic java.io.PrintStream out;\n");
+		code.append("\tstatic java.util.Scanner in;\n");
+		code.append("\tstatic boolean prompting;  // Only main has a user to prompt\n");
+		code.append("\tstatic int zero;  // Not final, so javac can't fold loop conditions\n");
+		for (String variable : this.variables) {
+			code.append("\tstatic int v_").append(variable).append(";\n");
+			code.append("\tstatic boolean d_").append(variable).append(";  // Assigned yet?\n");
+		}
+		code.append("\n");
+
+		code.append("\tpublic static void main(String[] args) {\n");
+		code.append("\t\tprompting = true;\n");
+		code.append("\t\trun(System.out, new java.util.Scanner(System.in));\n");
+		code.append("\t}\n\n");
+
+		code.append("\tpublic static void run(java.io.PrintStream out, java.util.Scanner in) {\n");
+		code.append("\t\t").append(this.className).append(".out = out;\n");
+		code.append("\t\t").append(this.className).append(".in = in;\n");
+		for (String variable : this.variables) {
+			code.append("\t\td_").append(variable).append(" = false;\n");
+		}
+		code.append(body);
+		code.append("\t}\n\n");
+
+		// Reading a variable before it is assigned fails, as in the Interpreter
+		code.append("\tstatic int undefined(String name) {\n");
+		code.append("\t\tthrow new IllegalStateException(\"Unrecognized symbol: \" + name);\n");
+		code.append("\t}\n");
+
+		for (String sub : this.subs.keySet()) {
+			code.append("\n\tstatic void sub_").append(sub).append("() {\n");
+			code.append(this.subs.get(sub));
+			code.append("\t}\n");
+		}
+
+		code.append("}\n");
+		return code.toString();
+	}
+
+
+	private void compileBlock(StringBuilder code, String indent, TokenType... terminators) throws SyntaxException {
+		while (true) {
+			this.skipSeparators();
+
+			for (TokenType terminator : terminators) {
+				if (this.currentToken.type == terminator) {
+					return;
+				}
+			}
+			if (this.currentToken.type == TokenType.EOF) {
+				throw this.error("Reached end of program while compiling");
+			}
+
+			this.compileStatement(code, indent);
+		}
+	}
+
+
+	private void compileStatement(StringBuilder code, String indent) throws SyntaxException {
+		switch (this.currentToken.type) {
+
+		case NAME:
+			String lhs = this.currentToken.value;
+			this.consume(TokenType.NAME);
+			this.consume(TokenType.ASSIGN);
+			this.variables.add(lhs);
+			code.append(indent).append("v_").append(lhs).append(" = ").append(this.compileExpression()).append(";\n");
+			code.append(indent).append("d_").append(lhs).append(" = true;\n");
+			break;
+
+		case PRINT:
+			this.consume(TokenType.PRINT);
+			code.append(indent).append("out.println(").append(this.compileExpression()).append(");\n");
+			break;
+
+		case INPUT:
+			this.consume(TokenType.INPUT);
+			String name = this.currentToken.value;
+			this.consume(TokenType.NAME);
+			this.variables.add(name);
+			code.append(indent).append("if (prompting) out.print(\"Enter a value for ").append(name).append(": \");\n");
+			code.append(indent).append("v_").append(name).append(" = in.nextInt();\n");
+			code.append(indent).append("d_").append(name).append(" = true;\n");
+			break;
+
+		case CALL:
+			this.consume(TokenType.CALL);
+			String sub = this.currentToken.value;
+			this.consume(TokenType.NAME);
+			this.called.add(sub);
+			code.append(indent).append("sub_").append(sub).append("();\n");
+			break;
+
+		case RETURN:
+			if (!this.inSub) {
+				throw this.error("RETURN outside of a SUB");
+			}
+			this.consume(TokenType.RETURN);
+			// javac rejects statements after a plain return as unreachable
+			code.append(indent).append("if (true) return;\n");
+			break;
+
+		case IF:
+			this.compileIf(code, indent);
+			break;
+
+		case WHILE:
+			this.compileWhile(code, indent);
+			break;
+
+		case FOR:
+			this.compileFor(code, indent);
+			break;
+
+		case SUB:
+			this.compileSub();
+			break;
+
+		default:
+			throw this.error("Unexpected token: " + this.currentToken.type);
+		}
+	}
+
+
+	private void compileIf(StringBuilder code, String indent) throws SyntaxException {
+		this.consume(TokenType.IF);
+
+		code.append(indent).append("if (").append(this.compileCondition()).append(") {\n");
+		this.consume(TokenType.COLON);
+		this.compileBlock(code, indent + "\t", TokenType.ELSE, TokenType.ENDIF);
+
+		if (this.currentToken.type == TokenType.ELSE) {
+			this.consume(TokenType.ELSE);
+			this.consume(TokenType.COLON);
+			code.append(indent).append("} else {\n");
+			this.compileBlock(code, indent + "\t", TokenType.ENDIF);
+		}
+
+		this.consume(TokenType.ENDIF);
+		code.append(indent).append("}\n");
+	}
+
+
+	private void compileWhile(StringBuilder code, String indent) throws SyntaxException {
+		this.consume(TokenType.WHILE);
+
+		// A constant condition would make javac reject the code around the loop
+		// as unreachable, so literals in it are kept from being constants
+		this.inLoopCondition = true;
+		String condition = this.compileCondition();
+		this.inLoopCondition = false;
+
+		code.append(indent).append("while (").append(condition).append(") {\n");
+		this.consume(TokenType.COLON);
+		this.compileBlock(code, indent + "\t", TokenType.ENDWHILE);
+
+		this.consume(TokenType.ENDWHILE);
+		code.append(indent).append("}\n");
+	}
+
+
+	private void compileFor(StringBuilder code, String indent) throws SyntaxException {
+		this.consume(TokenType.FOR);
+		String name = this.currentToken.value;
+		this.consume(TokenType.NAME);
+		this.consume(TokenType.ASSIGN);
+		this.variables.add(name);
+
+		// As in the Interpreter, the body runs (end - start) times and the
+		// loop variable is only assigned once, before the first iteration
+		int loop = this.loops++;
+		code.append(indent).append("v_").append(name).append(" = ").append(this.compileExpression()).append(";\n");
+		code.append(indent).append("d_").append(name).append(" = true;\n");
+		this.consume(TokenType.TO);
+		code.append(indent).append("int end").append(loop).append(" = ").append(this.compileExpression())
+			.append(" - v_").append(name).append(";\n");
+		this.consume(TokenType.COLON);
+
+		code.append(indent).append("for (int i").append(loop).append(" = 0; i").append(loop).append(" < end")
+			.append(loop).append("; i").append(loop).append("++) {\n");
+		this.compileBlock(code, indent + "\t", TokenType.ENDFOR);
+
+		this.consume(TokenType.ENDFOR);
+		code.append(indent).append("}\n");
+	}
+
+
+	private void compileSub() throws SyntaxException {
+		this.consume(TokenType.SUB);
+		String name = this.currentToken.value;
+		if (this.subs.containsKey(name)) {
+			throw this.error("Subroutine defined twice: " + name);
+		}
+		this.consume(TokenType.NAME);
+		this.consume(TokenType.COLON);
+
+		// Subroutines become methods wherever they appear in the program
+		StringBuilder body = new StringBuilder();
+		this.subs.put(name, body);
+
+		boolean outer = this.inSub;
+		this.inSub = true;
+		this.compileBlock(body, "\t\t", TokenType.ENDSUB);
+		this.inSub = outer;
+
+		this.consume(TokenType.ENDSUB);
+	}
+
+
+	private String compileCondition() throws SyntaxException {
+		// AND, OR and NOT map onto Java's short-circuit operators
+		String value = this.compileAndCondition();
+
+		while (this.currentToken.type == TokenType.OR) {
+			this.consume(TokenType.OR);
+			value = "(" + value + " || " + this.compileAndCondition() + ")";
+		}
+
+		return value;
+	}
+
+
+	private String compileAndCondition() throws SyntaxException {
+		String value = this.compileNotCondition();
+
+		while (this.currentToken.type == TokenType.AND) {
+			this.consume(TokenType.AND);
+			value = "(" + value + " && " + this.compileNotCondition() + ")";
+		}
+
+		return value;
+	}
+
+
+	private String compileNotCondition() throws SyntaxException {
+		if (this.currentToken.type == TokenType.NOT) {
+			this.consume(TokenType.NOT);
+			return "!" + this.compileNotCondition();
+		}
+
+		if (this.currentToken.type == TokenType.LEFT_PAREN && Interpreter.isConditionGroup(this.program, this.pc)) {
+			this.consume(TokenType.LEFT_PAREN);
+			String value = this.compileCondition();
+			this.consume(TokenType.RIGHT_PAREN);
+			return "(" + value + ")";
+		}
+
+		return this.compileRelation();
+	}
+
+
+	private String compileRelation() throws SyntaxException {
+		String lhs = this.compileExpression();
+		String operator;
+
+		switch (this.currentToken.type) {
+		case LESS_THAN:             operator = " < ";  break;
+		case GREATER_THAN:          operator = " > ";  break;
+		case LESS_THAN_OR_EQUAL:    operator = " <= "; break;
+		case GREATER_THAN_OR_EQUAL: operator = " >= "; break;
+		case EQUAL:                 operator = " == "; break;
+		case NOT_EQUAL:             operator = " != "; break;
+		default:
+			// As in the Interpreter, a lone expression is true when it is not 0
+			return "(" + lhs + " != 0)";
+		}
+
+		this.consume(this.currentToken.type);
+		return "(" + lhs + operator + this.compileExpression() + ")";
+	}
+
+
+	private String compileExpression() throws SyntaxException {
+		String value = this.compileTerm();
+
+		while (this.currentToken.type == TokenType.PLUS || this.currentToken.type == TokenType.MINUS) {
+			String operator = this.currentToken.type == TokenType.PLUS ? " + " : " - ";
+			this.consume(this.currentToken.type);
+			value = "(" + value + operator + this.compileTerm() + ")";
+		}
+
+		return value;
+	}
+
+
+	private String compileTerm() throws SyntaxException {
+		String value = this.compileUnaryTerm();
+
+		while (this.currentToken.type == TokenType.TIMES || this.currentToken.type == TokenType.DIVIDE
+				|| this.currentToken.type == TokenType.MOD) {
+			String operator = this.currentToken.type == TokenType.TIMES ? " * "
+					: this.currentToken.type == TokenType.DIVIDE ? " / " : " % ";
+			this.consume(this.currentToken.type);
+			value = "(" + value + operator + this.compileUnaryTerm() + ")";
+		}
+
+		return value;
+	}
+
+
+	private String compileUnaryTerm() throws SyntaxException {
+		if (this.currentToken.type == TokenType.MINUS) {
+			this.consume(TokenType.MINUS);
+			// Not "(-" + factor + ")": a negative literal would make that "--", a decrement
+			return "(-(" + this.compileFactor() + "))";
+		}
+		return this.compileFactor();
+	}
+
+
+	private String compileFactor() throws SyntaxException {
+		if (this.currentToken.type == TokenType.NUMBER) {
+			String value = this.currentToken.value;
+			this.consume(TokenType.NUMBER);
+			return this.inLoopCondition ? "(zero + " + value + ")" : value;
+		} else if (this.currentToken.type == TokenType.NAME) {
+			String name = this.currentToken.value;
+			this.consume(TokenType.NAME);
+			this.variables.add(name);
+			return "(d_" + name + " ? v_" + name + " : undefined(\"" + name + "\"))";
+		} else if (this.currentToken.type == TokenType.LEFT_PAREN) {
+			this.consume(TokenType.LEFT_PAREN);
+			String value = this.compileExpression();
+			this.consume(TokenType.RIGHT_PAREN);
+			return value;
+		} else {
+			throw this.error("Expected number, variable name, or parenthesized expression, found " + this.currentToken.type);
+		}
+	}
+
+
+	private void consume(TokenType expected) throws SyntaxException {
+		if (this.currentToken.type != expected) {
+			throw this.error("Expected " + expected + ", but found " + this.currentToken.type);
+		}
+
+		this.pc++;
+		if (this.pc < this.program.size()) {
+			this.currentToken = this.program.get(this.pc);
+		}
+	}
+
+
+	private void skipSeparators() throws SyntaxException {
+		while (this.currentToken.type == TokenType.NEWLINE || this.currentToken.type == TokenType.COMMENT) {
+			this.consume(this.currentToken.type);
+		}
+	}
+
+
+	private SyntaxException error(String message) {
+		return new SyntaxException(message, this.pc, this.currentToken);
+	}
+
+
+	private static boolean isGenerated(File file) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
+			String first = reader.readLine();
+			return first != null && first.startsWith("// Compiled from PROGRAM ") && first.endsWith(" by ScriptCompiler");
+		}
+	}
+
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: ScriptCompiler <script> [output directory]");
+			return;
+		}
+
+		try {
+			File outputDirectory = new File(args.length > 1 ? args[1] : ".");
+			ScriptCompiler compiler = new ScriptCompiler(Interpreter.tokenize(new Lexer(args[0])));
+			String source = compiler.compile(null);
+
+			File sourceFile = new File(outputDirectory, compiler.className + ".java");
+			if (sourceFile.exists() && !isGenerated(sourceFile)) {
+				// PROGRAM lexer: would otherwise overwrite Lexer.java
+				System.out.println("Not overwriting " + sourceFile + ", which ScriptCompiler did not write");
+				System.exit(1);
+			}
+			Files.writeString(sourceFile.toPath(), source);
+			System.out.println("Wrote " + sourceFile);
+
+			// Go on to a class file when running on a JDK
+			JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+			if (javac != null) {
+				if (javac.run(null, null, null, "-d", outputDirectory.getPath(), sourceFile.getPath()) != 0) {
+					System.out.println("javac could not compile " + sourceFile);
+					System.exit(1);
+				}
+				System.out.println("Wrote " + new File(outputDirectory, compiler.className + ".class"));
+			}
+		} catch (Exception e) {
+			System.out.println(e);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,27 @@
+// Base class for errors reported against a position in a script
+
+public class ScriptException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	int tokenIndex;  // Index into the program's tokens, or -1 if not known
+	int line;
+	int column;
+
+	public ScriptException(String message, int tokenIndex, int line, int column) {
+		// Script errors are reported to users, not debugged as Java code,
+		// so skip the cost of filling in a stack trace
+		super(message, null, false, false);
+		this.tokenIndex = tokenIndex;
+		this.line = line;
+		this.column = column;
+	}
+
+	public ScriptException(String message, int tokenIndex, Token token) {
+		this(message, tokenIndex, token.line, token.column);
+	}
+
+	public String toString() {
+		return getClass().getName() + " on line " + this.line + ", column " + this.column + ": " + getMessage();
+	}
+}
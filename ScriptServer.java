@@ -0,0 +1,156 @@
+// A long-running server that runs scripts on request, reusing their lexed tokens
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ScriptServer {
+
+	static final int DEFAULT_PORT = 7777;
+	static final long DEFAULT_TIMEOUT = 10000;  // Milliseconds a request may run
+
+	// A script's tokens, kept until the file changes on disk
+	static class CachedProgram {
+		long lastModified;
+		ArrayList<Token> tokens;
+	}
+
+	ServerSocket socket;
+	ExecutorService workers = Executors.newCachedThreadPool();
+	ConcurrentHashMap<String, CachedProgram> programs = new ConcurrentHashMap<String, CachedProgram>();
+	InterpreterMetrics metrics;  // Shared by every request when enabled
+	long timeout = DEFAULT_TIMEOUT;  // 0 lets requests run for as long as they like
+
+
+	public ScriptServer(int port) throws IOException {
+		// Only local clients may run scripts
+		this.socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+	}
+
+
+	public void serve() throws IOException {
+		while (true) {
+			Socket client = this.socket.accept();
+			this.workers.execute(() -> this.handle(client));
+		}
+	}
+
+
+	/**
+	 * Each request is one line, "RUN <script> [input ...]". The script's
+	 * PRINT output is streamed back as it is produced, followed by a final
+	 * "OK" or "ERROR <message>" line. A script that runs past the timeout,
+	 * or recurses too deeply, ends in an ERROR line like any other failure,
+	 * and the connection carries on serving. A "STATS" request returns the
+	 * server's metrics, one "name value" line each, followed by "OK".
+	 * A connection may send any number of requests.
+	 * @param client the connection to serve
+	 */
+	void handle(Socket client) {
+		try (Socket connection = client) {
+			BufferedReader requests = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+			PrintStream out = new PrintStream(connection.getOutputStream(), true);
+
+			String request;
+			while ((request = requests.readLine()) != null) {
+				String[] words = request.trim().split("\\s+", 3);
+
+				if (words[0].equalsIgnoreCase("STATS")) {
+					out.print(this.metrics != null ? this.metrics : "");
+					out.println("OK");
+					continue;
+				}
+
+				if (words.length < 2 || !words[0].equalsIgnoreCase("RUN")) {
+					out.println("ERROR Expected: RUN <script> [input ...]");
+					continue;
+				}
+
+				try {
+					// Every request gets its own Interpreter, and so its own variables
+					Interpreter interpreter = new Interpreter(this.load(words[1]));
+					interpreter.out = out;
+					interpreter.in = new Scanner(words.length > 2 ? words[2] : "");
+					interpreter.metrics = this.metrics;
+					if (this.timeout > 0) {
+						interpreter.deadline = System.nanoTime() + this.timeout * 1000000;
+					}
+					interpreter.evalProgram();
+					out.println("OK");
+				} catch (Exception e) {
+					out.println("ERROR " + e);
+				} catch (StackOverflowError e) {
+					// The request's frames are gone by now, so the thread can carry on
+					out.println("ERROR Subroutine calls nested too deeply");
+				}
+			}
+		} catch (IOException e) {
+			// The client went away; nothing left to report to
+		}
+	}
+
+
+	ArrayList<Token> load(String filename) throws Exception {
+		File file = new File(filename).getCanonicalFile();
+		long lastModified = file.lastModified();
+
+		CachedProgram cached = this.programs.get(file.getPath());
+		if (cached != null && cached.lastModified == lastModified) {
+			return cached.tokens;
+		}
+
+		// Interpreters only read the token list, so one copy is shared by all requests
+		CachedProgram loaded = new CachedProgram();
+		loaded.lastModified = lastModified;
+
+		if (this.metrics != null) {
+			InterpreterMetrics.PhaseEvent event = this.metrics.beginPhase("lex", file.getPath());
+			long start = System.nanoTime();
+			loaded.tokens = Interpreter.tokenize(new Lexer(file.getPath()));
+			this.metrics.endLex(event, start);
+		} else {
+			loaded.tokens = Interpreter.tokenize(new Lexer(file.getPath()));
+		}
+		this.programs.put(file.getPath(), loaded);
+		return loaded.tokens;
+	}
+
+
+	public static void main(String[] args) {
+		int port = DEFAULT_PORT;
+		boolean metrics = false;
+		long timeout = DEFAULT_TIMEOUT;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-metrics")) {
+				metrics = true;
+			} else if (args[i].equals("-timeout") && i + 1 < args.length) {
+				timeout = Long.parseLong(args[++i]);
+			} else {
+				port = Integer.parseInt(args[i]);
+			}
+		}
+
+		try {
+			ScriptServer server = new ScriptServer(port);
+			if (metrics) {
+				server.metrics = new InterpreterMetrics();
+			}
+			server.timeout = timeout;
+			System.out.println("Listening on " + server.socket.getLocalSocketAddress());
+			server.serve();
+		} catch (Exception e) {
+			System.out.println(e);
+		}
+	}
+}
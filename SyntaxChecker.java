@@ -0,0 +1,338 @@
+// Finds every syntax error in a script in one pass, without running it
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Stack;
+
+public class SyntaxChecker {
+
+	ArrayList<Token> tokens;
+	int pos;
+	ArrayList<ScriptException> errors;
+
+	// Indexes of the IF, WHILE, FOR and SUB tokens whose blocks are still open
+	Stack<Integer> blocks = new Stack<Integer>();
+
+
+	public SyntaxChecker(ArrayList<Token> tokens, ArrayList<ScriptException> errors) {
+		this.tokens = tokens;
+		this.errors = errors;
+	}
+
+
+	/**
+	 * Lex and check a script, collecting lexical and syntax errors
+	 * instead of stopping at the first one
+	 * @param filename the script to check
+	 * @return the errors, in source order; empty if the script is valid
+	 * @throws IOException
+	 */
+	public static ArrayList<ScriptException> check(String filename) throws IOException {
+		ArrayList<ScriptException> errors = new ArrayList<ScriptException>();
+
+		Lexer lexer = new Lexer(filename);
+		lexer.errors = errors;
+
+		ArrayList<Token> tokens = new ArrayList<Token>();
+		Token t;
+		do {
+			try {
+				t = lexer.nextToken();
+			} catch (LexException e) {
+				// Unreachable while the lexer is collecting errors
+				errors.add(e);
+				break;
+			}
+			tokens.add(t);
+		} while (t.type != TokenType.EOF);
+
+		if (tokens.isEmpty() || tokens.get(tokens.size() - 1).type != TokenType.EOF) {
+			Token eof = new Token(TokenType.EOF);
+			eof.line = lexer.lineNumber;
+			tokens.add(eof);
+		}
+
+		new SyntaxChecker(tokens, errors).checkProgram();
+
+		errors.sort(Comparator.comparingInt((ScriptException e) -> e.line).thenComparingInt(e -> e.column));
+		return errors;
+	}
+
+
+	public void checkProgram() {
+		this.skipSeparators();
+
+		try {
+			this.expect(TokenType.PROGRAM);
+			this.expect(TokenType.NAME);
+			this.expect(TokenType.COLON);
+		} catch (SyntaxException e) {
+			this.recover(e);
+		}
+
+		while (this.current().type != TokenType.END) {
+			if (this.current().type == TokenType.EOF) {
+				this.errors.add(this.error("Missing END at end of program"));
+				break;
+			}
+
+			try {
+				this.checkStatement();
+			} catch (SyntaxException e) {
+				this.recover(e);
+			}
+		}
+
+		while (!this.blocks.isEmpty()) {
+			int open = this.blocks.pop();
+			Token t = this.tokens.get(open);
+			this.errors.add(new SyntaxException(t.type + " block is never closed", open, t));
+		}
+	}
+
+
+	private void checkStatement() throws SyntaxException {
+		Token t = this.current();
+
+		switch (t.type) {
+		case NEWLINE: case COMMENT:
+			this.pos++;
+			break;
+
+		case UNKNOWN:
+			// Already reported by the lexer; the rest of the line would only cascade
+			this.skipLine();
+			break;
+
+		case NAME:
+			this.pos++;
+			this.expect(TokenType.ASSIGN);
+			this.checkExpression();
+			break;
+
+		case PRINT:
+			this.pos++;
+			this.checkExpression();
+			break;
+
+		case INPUT: case CALL:
+			this.pos++;
+			this.expect(TokenType.NAME);
+			break;
+
+		case RETURN:
+			this.pos++;
+			break;
+
+		case IF: case WHILE:
+			this.blocks.push(this.pos++);
+			this.checkCondition();
+			this.expect(TokenType.COLON);
+			break;
+
+		case ELSE:
+			if (this.blocks.isEmpty() || this.tokens.get(this.blocks.peek()).type != TokenType.IF) {
+				throw this.error("ELSE without matching IF");
+			}
+			this.pos++;
+			this.expect(TokenType.COLON);
+			break;
+
+		case FOR:
+			this.blocks.push(this.pos++);
+			this.expect(TokenType.NAME);
+			this.expect(TokenType.ASSIGN);
+			this.checkExpression();
+			this.expect(TokenType.TO);
+			this.checkExpression();
+			this.expect(TokenType.COLON);
+			// Unlike IF and WHILE, the Interpreter needs a FOR body to start on the next line
+			this.expect(TokenType.NEWLINE);
+			break;
+
+		case SUB:
+			this.blocks.push(this.pos++);
+			this.expect(TokenType.NAME);
+			this.expect(TokenType.COLON);
+			break;
+
+		case ENDIF:
+			this.closeBlock(TokenType.IF);
+			break;
+
+		case ENDWHILE:
+			this.closeBlock(TokenType.WHILE);
+			break;
+
+		case ENDFOR:
+			this.closeBlock(TokenType.FOR);
+			break;
+
+		case ENDSUB:
+			this.closeBlock(TokenType.SUB);
+			break;
+
+		default:
+			throw this.error("Unexpected token: " + t.type);
+		}
+	}
+
+
+	private void closeBlock(TokenType opener) throws SyntaxException {
+		Token closer = this.current();
+
+		if (!this.isOpen(opener)) {
+			this.pos++;
+			throw new SyntaxException(closer.type + " without matching " + opener, this.pos - 1, closer);
+		}
+
+		// Anything opened inside this block and not closed is an error
+		while (this.tokens.get(this.blocks.peek()).type != opener) {
+			int open = this.blocks.pop();
+			Token t = this.tokens.get(open);
+			this.errors.add(new SyntaxException(t.type + " block is never closed", open, t));
+		}
+		this.blocks.pop();
+		this.pos++;
+	}
+
+
+	private boolean isOpen(TokenType opener) {
+		for (int open : this.blocks) {
+			if (this.tokens.get(open).type == opener) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	private void checkCondition() throws SyntaxException {
+		this.checkAndCondition();
+		while (this.current().type == TokenType.OR) {
+			this.pos++;
+			this.checkAndCondition();
+		}
+	}
+
+
+	private void checkAndCondition() throws SyntaxException {
+		this.checkNotCondition();
+		while (this.current().type == TokenType.AND) {
+			this.pos++;
+			this.checkNotCondition();
+		}
+	}
+
+
+	private void checkNotCondition() throws SyntaxException {
+		if (this.current().type == TokenType.NOT) {
+			this.pos++;
+			this.checkNotCondition();
+			return;
+		}
+
+		if (this.current().type == TokenType.LEFT_PAREN && Interpreter.isConditionGroup(this.tokens, this.pos)) {
+			this.pos++;
+			this.checkCondition();
+			this.expect(TokenType.RIGHT_PAREN);
+			return;
+		}
+
+		this.checkExpression();
+
+		switch (this.current().type) {
+		case LESS_THAN: case GREATER_THAN: case LESS_THAN_OR_EQUAL:
+		case GREATER_THAN_OR_EQUAL: case EQUAL: case NOT_EQUAL:
+			this.pos++;
+			this.checkExpression();
+			break;
+		default:
+			break;
+		}
+	}
+
+
+	private void checkExpression() throws SyntaxException {
+		this.checkTerm();
+		while (this.current().type == TokenType.PLUS || this.current().type == TokenType.MINUS) {
+			this.pos++;
+			this.checkTerm();
+		}
+	}
+
+
+	private void checkTerm() throws SyntaxException {
+		this.checkUnaryTerm();
+		while (this.current().type == TokenType.TIMES || this.current().type == TokenType.DIVIDE
+				|| this.current().type == TokenType.MOD) {
+			this.pos++;
+			this.checkUnaryTerm();
+		}
+	}
+
+
+	private void checkUnaryTerm() throws SyntaxException {
+		if (this.current().type == TokenType.MINUS) {
+			this.pos++;
+		}
+
+		switch (this.current().type) {
+		case NUMBER: case NAME:
+			this.pos++;
+			break;
+
+		case LEFT_PAREN:
+			this.pos++;
+			this.checkExpression();
+			this.expect(TokenType.RIGHT_PAREN);
+			break;
+
+		default:
+			throw this.error("Expected number, variable name, or parenthesized expression, found " + this.current().type);
+		}
+	}
+
+
+	private void expect(TokenType expected) throws SyntaxException {
+		if (this.current().type != expected) {
+			throw this.error("Expected " + expected + ", but found " + this.current().type);
+		}
+		this.pos++;
+	}
+
+
+	private void recover(SyntaxException e) {
+		// An error at an UNKNOWN token repeats one the lexer already reported
+		if (e.tokenIndex < 0 || this.tokens.get(e.tokenIndex).type != TokenType.UNKNOWN) {
+			this.errors.add(e);
+		}
+		this.skipLine();
+	}
+
+
+	private void skipLine() {
+		// Resume checking at the start of the next line
+		while (this.current().type != TokenType.NEWLINE && this.current().type != TokenType.EOF) {
+			this.pos++;
+		}
+	}
+
+
+	private void skipSeparators() {
+		while (this.current().type == TokenType.NEWLINE || this.current().type == TokenType.COMMENT) {
+			this.pos++;
+		}
+	}
+
+
+	private Token current() {
+		return this.tokens.get(this.pos);
+	}
+
+
+	private SyntaxException error(String message) {
+		return new SyntaxException(message, this.pos, this.current());
+	}
+}
@@ -0,0 +1,10 @@
+// Tokens that do not form a valid statement
+
+public class SyntaxException extends ScriptException {
+
+	private static final long serialVersionUID = 1L;
+
+	public SyntaxException(String message, int tokenIndex, Token token) {
+		super(message, tokenIndex, token);
+	}
+}
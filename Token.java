@@ -12,6 +12,9 @@ enum TokenType {
 public class Token {
    TokenType type;
    String value;  // Some tokens, like IDENT, have an associated value
+   int line;      // Source position the token started at, set by the Lexer
+   int column;
+   Boolean conditionGroup;  // For a LEFT_PAREN, null until the Interpreter classifies it
    
    public Token(TokenType type) {
      this.type = type;
@@ -0,0 +1,99 @@
+// Lexes a source on a background thread, handing tokens to the Interpreter in chunks
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class TokenPipeline implements Runnable {
+
+	static final int CHUNK_SIZE = 4096;
+	static final int CHUNKS = 16;
+
+	// Marks the end of the stream after a lexing error
+	private static final Token[] FAILED = new Token[0];
+
+	Lexer lexer;
+	ArrayBlockingQueue<Token[]> chunks = new ArrayBlockingQueue<Token[]>(CHUNKS);
+	volatile Exception error;
+	Thread thread;
+
+
+	public TokenPipeline(Lexer lexer) {
+		this.lexer = lexer;
+
+		// A daemon thread, so an abandoned pipeline never keeps the JVM alive
+		this.thread = new Thread(this, "lexer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+
+	public void run() {
+		Token[] chunk = new Token[CHUNK_SIZE];
+		int count = 0;
+
+		try {
+			Token t;
+			do {
+				t = this.lexer.nextToken();
+				chunk[count++] = t;
+
+				if (count == CHUNK_SIZE || t.type == TokenType.EOF) {
+					this.chunks.put(count == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, count));
+					chunk = new Token[CHUNK_SIZE];
+					count = 0;
+				}
+			} while (t.type != TokenType.EOF);
+		} catch (InterruptedException e) {
+			return;
+		} catch (Exception e) {
+			try {
+				// Hand over the tokens before the error, so it is only
+				// reported once the interpreter actually reaches it
+				if (count > 0) {
+					this.chunks.put(Arrays.copyOf(chunk, count));
+				}
+				this.error = e;
+				this.chunks.put(FAILED);
+			} catch (InterruptedException ie) {
+				return;
+			}
+		} finally {
+			// The lexer is done with its source, whether it reached the end or was closed
+			try {
+				this.lexer.reader.close();
+			} catch (IOException e) {
+				// Nothing more will be read from it either way
+			}
+		}
+	}
+
+
+	/**
+	 * Block until the next chunk is lexed and append it to the program
+	 * @param program the tokens loaded so far
+	 * @return true if more chunks follow
+	 * @throws Exception the lexer's error, if lexing stopped early
+	 */
+	public boolean fill(ArrayList<Token> program) throws Exception {
+		Token[] chunk = this.chunks.take();
+
+		if (chunk == FAILED) {
+			throw this.error;
+		}
+
+		Collections.addAll(program, chunk);
+		return chunk[chunk.length - 1].type != TokenType.EOF;
+	}
+
+
+	/**
+	 * Stop lexing early, when the program ends before reading all of its
+	 * tokens. The lexer thread closes its source on the way out.
+	 */
+	public void close() {
+		this.thread.interrupt();
+	}
+}